@@ -0,0 +1,79 @@
+package vagueobjects.ir.lda.demo;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+import vagueobjects.ir.lda.gibbs.DistributedWorker;
+import vagueobjects.ir.lda.gibbs.ParameterServer;
+import vagueobjects.ir.lda.gibbs.Result;
+import vagueobjects.ir.lda.tokens.Words;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Distributed version of the Reuters demo. Start the parameter server first:
+ * <pre>
+ * server /PATH/TO/reuters21578.tar.gz PORT NUMBER_OF_WORKERS [STALENESS]
+ * </pre>
+ * and then each of the workers, possibly in separate JVMs:
+ * <pre>
+ * worker /PATH/TO/reuters21578.tar.gz HOST PORT WORKER_ID NUMBER_OF_WORKERS [NUMBER_OF_ITERATIONS]
+ * </pre>
+ * Worker <code>i</code> samples documents whose index modulo the number of workers equals <code>i</code>.
+ */
+public class DistributedReuters {
+    static Logger logger = Logger.getLogger(DistributedReuters.class);
+    static final int VOCAB_SIZE = 1000;
+    static final int NUMBER_OF_TOPICS = 100;
+    static final double ALPHA = 0.5;
+    static final double BETA = 0.01;
+
+    public static void main(String[] args) throws Exception {
+        BasicConfigurator.configure();
+        Reuters r = new Reuters(args[1]);
+        Words vocabulary = new Words(VOCAB_SIZE);
+        if ("server".equals(args[0])) {
+            vocabulary.buildVocabulary(r);
+            int numberOfWorkers = Integer.parseInt(args[3]);
+            int staleness = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+            ParameterServer server = new ParameterServer(NUMBER_OF_TOPICS, vocabulary.size(), numberOfWorkers, staleness,
+                    BETA);
+            server.start(Integer.parseInt(args[2]));
+            server.awaitCompletion();
+            logger.info("\n" + new Result(server.getPhi(), vocabulary));
+        } else if ("worker".equals(args[0])) {
+            int[][] tokensInDocs = vocabulary.processDocuments(r);
+            int workerId = Integer.parseInt(args[4]);
+            int numberOfWorkers = Integer.parseInt(args[5]);
+            int numberOfIterations = args.length > 6 ? Integer.parseInt(args[6]) : 1000;
+            List<int[]> shard = new ArrayList<int[]>();
+            for (int d = workerId; d < tokensInDocs.length; d += numberOfWorkers) {
+                shard.add(tokensInDocs[d]);
+            }
+            DistributedWorker worker = new DistributedWorker(workerId, NUMBER_OF_TOPICS, vocabulary.size(), ALPHA, BETA,
+                    shard.toArray(new int[shard.size()][]));
+            worker.execute(args[2], Integer.parseInt(args[3]), numberOfIterations, new Random());
+        } else {
+            throw new IllegalArgumentException("Unknown mode " + args[0]);
+        }
+    }
+}
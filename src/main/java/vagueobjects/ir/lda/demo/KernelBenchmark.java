@@ -0,0 +1,86 @@
+package vagueobjects.ir.lda.demo;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import vagueobjects.ir.lda.gibbs.DenseKernels;
+import vagueobjects.ir.lda.gibbs.PartialSampler;
+import vagueobjects.ir.lda.gibbs.SparseGibbsSampler;
+
+import java.text.DecimalFormat;
+import java.util.Random;
+
+/**
+ * Compares plain and unrolled dense kernels (see {@link DenseKernels}) for numbers of topics from 100 to 2000:
+ * inference of topics of new documents with {@link PartialSampler}, and training with statistics and
+ * perplexity estimated after each sweep. Arguments (all optional): number of documents, vocabulary size.
+ */
+public class KernelBenchmark {
+    static Logger logger = Logger.getLogger(KernelBenchmark.class);
+    static DecimalFormat df = new DecimalFormat("##.###");
+
+    public static void main(String[] args) {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+        logger.setLevel(Level.INFO);
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int vocabularySize = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int[][] tokensInDocs = SweepBenchmark.zipfCorpus(numDocs, vocabularySize, new Random(1));
+
+        for (int numberOfTopics : new int[]{100, 200, 500, 1000, 2000}) {
+            double[][] phi = randomPhi(numberOfTopics, vocabularySize, new Random(2));
+            for (int mode = 0; mode < 2; ++mode) {
+                DenseKernels.useUnrolledKernels(mode == 1);
+                //the first run warms up the JIT compiler
+                inference(numberOfTopics, tokensInDocs, phi);
+                double inference = inference(numberOfTopics, tokensInDocs, phi);
+                long start = System.nanoTime();
+                new SparseGibbsSampler(numberOfTopics, 5, 0, 1, 1e-12)
+                        .execute(tokensInDocs, vocabularySize, new Random(3));
+                double training = 1e-9 * (System.nanoTime() - start);
+                logger.info("K=" + numberOfTopics + (mode == 1 ? " unrolled" : " scalar")
+                        + ": inference " + df.format(inference) + " s, training with statistics "
+                        + df.format(training) + " s");
+            }
+        }
+        DenseKernels.useUnrolledKernels(true);
+    }
+
+    static double inference(int numberOfTopics, int[][] tokensInDocs, double[][] phi) {
+        long start = System.nanoTime();
+        new PartialSampler(numberOfTopics, 10).sample(tokensInDocs, phi);
+        return 1e-9 * (System.nanoTime() - start);
+    }
+
+    static double[][] randomPhi(int numberOfTopics, int vocabularySize, Random random) {
+        double[][] phi = new double[numberOfTopics][vocabularySize];
+        for (double[] row : phi) {
+            double sum = 0;
+            for (int w = 0; w < vocabularySize; ++w) {
+                row[w] = random.nextDouble();
+                sum += row[w];
+            }
+            for (int w = 0; w < vocabularySize; ++w) {
+                row[w] /= sum;
+            }
+        }
+        return phi;
+    }
+}
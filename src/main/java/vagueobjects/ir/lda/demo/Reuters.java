@@ -30,11 +30,13 @@ import org.w3c.tidy.DOMTextImpl;
 import org.w3c.tidy.Tidy;
 import vagueobjects.ir.lda.gibbs.Result;
 import vagueobjects.ir.lda.gibbs.SparseGibbsSampler;
+import vagueobjects.ir.lda.tokens.CorpusCache;
 import vagueobjects.ir.lda.tokens.Processor;
 import vagueobjects.ir.lda.tokens.SourceHandler;
 import vagueobjects.ir.lda.tokens.Words;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.DecimalFormat;
@@ -53,11 +55,13 @@ public class Reuters implements Processor {
         BasicConfigurator.configure();
 
         logger.info("using path " + args[0]);
-        Reuters r = new Reuters(args[0]);
+        Processor r = new ReutersStream(args[0], Runtime.getRuntime().availableProcessors());
         int vocabSize = 1000;
         int numberOfTopics = 100;
         Words vocabulary = new Words(vocabSize);
-        int[][] tokensInDocs = vocabulary.processDocuments(r);
+        int[][] tokensInDocs = args.length > 1
+                ? new CorpusCache(new File(args[1])).processDocuments(r, vocabulary, new File(args[0]))
+                : vocabulary.processDocuments(r);
         int numTokens = vocabulary.size();
         logger.info("extraction complete");
         long start = System.currentTimeMillis();
@@ -84,9 +88,7 @@ public class Reuters implements Processor {
                 String name = e.getName();
                 if (name.endsWith("sgm")) {
                     logger.info("Processing " + name);
-                    int size = (int) e.getSize();
-                    byte[] content = new byte[size];
-                    is.read(content);
+                    byte[] content = IOUtils.toByteArray(is);
 
                     ByteArrayInputStream bs = new ByteArrayInputStream(content);
                     Document document = jt.parseDOM(bs, null);
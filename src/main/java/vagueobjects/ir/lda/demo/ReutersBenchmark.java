@@ -0,0 +1,67 @@
+package vagueobjects.ir.lda.demo;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import vagueobjects.ir.lda.tokens.Processor;
+import vagueobjects.ir.lda.tokens.SourceHandler;
+
+import java.text.DecimalFormat;
+
+/**
+ * Compares throughput of reading the Reuters-21578 archive through JTidy's DOM ({@link Reuters}) and through
+ * the streaming reader ({@link ReutersStream}) with one thread and with several.
+ * Arguments: path of the archive, number of threads (optional, all processors by default).
+ */
+public class ReutersBenchmark {
+    static Logger logger = Logger.getLogger(ReutersBenchmark.class);
+    static DecimalFormat df = new DecimalFormat("##.###");
+
+    public static void main(String[] args) {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+        logger.setLevel(Level.INFO);
+        String path = args[0];
+        int numberOfThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+
+        for (int run = 0; run < 2; ++run) {
+            //the first run warms up the JIT compiler
+            measure("DOM", new Reuters(path));
+            measure("streaming", new ReutersStream(path, 1));
+            measure("streaming, " + numberOfThreads + " threads", new ReutersStream(path, numberOfThreads));
+        }
+    }
+
+    static void measure(String name, Processor processor) {
+        final long[] counts = new long[2];
+        long start = System.nanoTime();
+        processor.process(new SourceHandler() {
+            @Override
+            public void handle(String text) {
+                counts[0]++;
+                counts[1] += text.length();
+            }
+        });
+        double seconds = 1e-9 * (System.nanoTime() - start);
+        logger.info(name + ": " + counts[0] + " documents, " + counts[1] + " characters in " + df.format(seconds)
+                + " s, " + df.format(1e-6 * counts[1] / seconds) + "M characters/s");
+    }
+}
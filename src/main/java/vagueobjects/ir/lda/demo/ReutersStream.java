@@ -0,0 +1,130 @@
+package vagueobjects.ir.lda.demo;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import vagueobjects.ir.lda.tokens.Processor;
+import vagueobjects.ir.lda.tokens.SourceHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads BODY text of the Reuters-21578 collection, a <code>tar.gz</code> archive of SGML files, with
+ * {@link SgmlTextExtractor} instead of a DOM. With a single thread, entries are parsed straight from the
+ * archive stream. With more, the calling thread decompresses entries and hands them to a pool of parsers,
+ * keeping at most two entries per thread in flight; documents still reach the handler in archive order,
+ * from the calling thread.
+ */
+public class ReutersStream implements Processor {
+    static Logger logger = Logger.getLogger(ReutersStream.class);
+    private static final String ENCODING = "ISO-8859-1";
+    private static final String ELEMENT = "BODY";
+    final String path;
+    final int numberOfThreads;
+
+    public ReutersStream(String path, int numberOfThreads) {
+        this.path = path;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public void process(SourceHandler handler) {
+        FileInputStream fis = null;
+        GZIPInputStream gz = null;
+        ExecutorService executor = numberOfThreads > 1 ? Executors.newFixedThreadPool(numberOfThreads) : null;
+        try {
+            fis = new FileInputStream(path);
+            gz = new GZIPInputStream(fis, 1 << 16);
+            TarArchiveInputStream is = new TarArchiveInputStream(gz);
+            SgmlTextExtractor extractor = new SgmlTextExtractor(ELEMENT);
+            ArrayDeque<Future<List<String>>> pending = new ArrayDeque<Future<List<String>>>();
+            ArchiveEntry e;
+            while ((e = is.getNextTarEntry()) != null) {
+                String name = e.getName();
+                if (!name.endsWith("sgm")) {
+                    continue;
+                }
+                logger.info("Processing " + name);
+                if (executor == null) {
+                    extractor.extract(new InputStreamReader(is, ENCODING), handler);
+                    continue;
+                }
+                pending.add(executor.submit(new Parser(IOUtils.toByteArray(is))));
+                if (pending.size() >= 2 * numberOfThreads) {
+                    emit(pending.poll().get(), handler);
+                }
+            }
+            while (!pending.isEmpty()) {
+                emit(pending.poll().get(), handler);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            IOUtils.closeQuietly(fis);
+            IOUtils.closeQuietly(gz);
+        }
+    }
+
+    private static void emit(List<String> documents, SourceHandler handler) {
+        for (String text : documents) {
+            handler.handle(text);
+        }
+    }
+
+    private static class Parser implements Callable<List<String>> {
+        private final byte[] content;
+
+        Parser(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public List<String> call() throws IOException {
+            final List<String> documents = new ArrayList<String>();
+            new SgmlTextExtractor(ELEMENT).extract(
+                    new InputStreamReader(new ByteArrayInputStream(content), ENCODING), new SourceHandler() {
+                @Override
+                public void handle(String text) {
+                    documents.add(text);
+                }
+            });
+            return documents;
+        }
+    }
+}
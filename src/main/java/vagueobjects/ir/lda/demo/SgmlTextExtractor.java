@@ -0,0 +1,174 @@
+package vagueobjects.ir.lda.demo;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import vagueobjects.ir.lda.tokens.SourceHandler;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Extracts the text of all elements of a given name from SGML or HTML, as a stream of events rather than a
+ * document tree: characters are read once, tags are recognised by name only, and text of the element is
+ * collected with character references and common entities decoded. Tags nested in the element are dropped;
+ * malformed markup, such as missing root elements or unknown entities, is passed over rather than rejected.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class SgmlTextExtractor {
+    private static final int MAX_ENTITY_LENGTH = 10;
+    private final String element;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+    private Reader reader;
+    private int position;
+    private int limit;
+    private int pushedBack = -1;
+
+    /**
+     * @param element - name of elements whose text is extracted, in any case
+     */
+    public SgmlTextExtractor(String element) {
+        this.element = element;
+    }
+
+    /**
+     * Hands the text of each element to the handler as soon as the element ends. The reader is not closed.
+     */
+    public void extract(Reader reader, SourceHandler handler) throws IOException {
+        this.reader = reader;
+        position = limit = 0;
+        pushedBack = -1;
+        boolean inElement = false;
+        int c;
+        while ((c = next()) >= 0) {
+            if (c == '<') {
+                boolean closing = readTag();
+                if (element.equalsIgnoreCase(tag.toString())) {
+                    if (!closing) {
+                        inElement = true;
+                        text.setLength(0);
+                    } else if (inElement) {
+                        handler.handle(text.toString());
+                        inElement = false;
+                    }
+                }
+            } else if (inElement) {
+                if (c == '&') {
+                    readEntity();
+                } else {
+                    text.append((char) c);
+                }
+            }
+        }
+        this.reader = null;
+    }
+
+    /**
+     * Reads the name of a tag whose opening bracket has been read, and skips the rest of the tag
+     *
+     * @return <code>true</code> for a closing tag
+     */
+    private boolean readTag() throws IOException {
+        tag.setLength(0);
+        int c = next();
+        boolean closing = c == '/';
+        if (closing) {
+            c = next();
+        }
+        while (c >= 0 && c != '>' && !Character.isWhitespace(c)) {
+            tag.append((char) c);
+            c = next();
+        }
+        while (c >= 0 && c != '>') {
+            c = next();
+        }
+        return closing;
+    }
+
+    /**
+     * Decodes an entity whose ampersand has been read; anything that is not an entity is kept as it is
+     */
+    private void readEntity() throws IOException {
+        entity.setLength(0);
+        int c;
+        while ((c = next()) != ';') {
+            if (c < 0 || entity.length() == MAX_ENTITY_LENGTH || !(Character.isLetterOrDigit(c) || c == '#')) {
+                text.append('&').append(entity);
+                pushedBack = c;
+                return;
+            }
+            entity.append((char) c);
+        }
+        int decoded = decode();
+        if (decoded >= 0) {
+            text.append((char) decoded);
+        } else {
+            text.append('&').append(entity).append(';');
+        }
+    }
+
+    /**
+     * @return character of the entity, or -1 if unknown
+     */
+    private int decode() {
+        String name = entity.toString();
+        if (name.startsWith("#")) {
+            try {
+                boolean hex = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X');
+                int value = hex ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+                return value <= Character.MAX_VALUE ? value : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        if (name.equals("lt")) {
+            return '<';
+        } else if (name.equals("gt")) {
+            return '>';
+        } else if (name.equals("amp")) {
+            return '&';
+        } else if (name.equals("quot")) {
+            return '"';
+        } else if (name.equals("apos")) {
+            return '\'';
+        } else if (name.equals("nbsp")) {
+            return ' ';
+        }
+        return -1;
+    }
+
+    private int next() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
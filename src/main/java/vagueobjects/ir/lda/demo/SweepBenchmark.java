@@ -0,0 +1,86 @@
+package vagueobjects.ir.lda.demo;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import vagueobjects.ir.lda.gibbs.SparseGibbsSampler;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares sampling throughput of sweep orders, as well as of parallel sweeps, on a synthetic corpus
+ * with Zipf-distributed tokens. Arguments (all optional): number of documents, vocabulary size, number of topics,
+ * number of iterations, number of threads (parallel sweeps are skipped for a single thread).
+ */
+public class SweepBenchmark {
+    static Logger logger = Logger.getLogger(SweepBenchmark.class);
+    static DecimalFormat df = new DecimalFormat("##.##");
+
+    public static void main(String[] args) {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.INFO);
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int vocabularySize = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int numberOfTopics = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int numberOfIterations = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int numberOfThreads = args.length > 4 ? Integer.parseInt(args[4])
+                : Runtime.getRuntime().availableProcessors();
+        int[][] tokensInDocs = zipfCorpus(numDocs, vocabularySize, new Random(1));
+        String[] modes = {"document-major", "word-major", numberOfThreads + " threads"};
+
+        for (int mode = 0; mode < (numberOfThreads > 1 ? 3 : 2); ++mode) {
+            SparseGibbsSampler sampler = new SparseGibbsSampler(numberOfTopics, numberOfIterations,
+                    numberOfIterations, numberOfIterations).disablePerplexityEstimate();
+            if (mode == 1) {
+                sampler.useWordMajorSweeps();
+            } else if (mode == 2) {
+                sampler.useParallelSweeps(numberOfThreads);
+            }
+            long start = System.currentTimeMillis();
+            sampler.execute(tokensInDocs, vocabularySize, new Random(2));
+            logger.info(modes[mode] + ": "
+                    + df.format(1e-3 * (System.currentTimeMillis() - start)) + " s");
+        }
+    }
+
+    /**
+     * Generates documents of 10 to 500 tokens, with token IDs following Zipf's law
+     */
+    static int[][] zipfCorpus(int numDocs, int vocabularySize, Random random) {
+        double[] cumulative = new double[vocabularySize];
+        double sum = 0;
+        for (int w = 0; w < vocabularySize; ++w) {
+            sum += 1d / (w + 1);
+            cumulative[w] = sum;
+        }
+        int[][] tokensInDocs = new int[numDocs][];
+        for (int d = 0; d < numDocs; ++d) {
+            tokensInDocs[d] = new int[10 + random.nextInt(490)];
+            for (int i = 0; i < tokensInDocs[d].length; ++i) {
+                int w = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                tokensInDocs[d][i] = w >= 0 ? w : Math.min(vocabularySize - 1, -w - 1);
+            }
+        }
+        return tokensInDocs;
+    }
+}
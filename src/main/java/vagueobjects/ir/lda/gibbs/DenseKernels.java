@@ -0,0 +1,171 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Loops over topics shared by inference, perplexity estimates and collection of statistics. Each kernel comes
+ * in two forms: a plain loop, and a loop unrolled by four with independent accumulators. The latter lets
+ * the JIT compiler keep several products in flight (and use SIMD instructions where it can), since a single
+ * floating-point accumulator serializes the loop.
+ * <p/>
+ * The unrolled form is the default; the plain one is used if the system property
+ * <code>balda.kernels</code> is set to <code>scalar</code>, or after {@link #useUnrolledKernels(boolean)}.
+ */
+public final class DenseKernels {
+    private static volatile boolean unrolled = !"scalar".equals(System.getProperty("balda.kernels"));
+
+    private DenseKernels() {
+    }
+
+    /**
+     * Switches between unrolled and plain loops at runtime
+     */
+    public static void useUnrolledKernels(boolean unrolled) {
+        DenseKernels.unrolled = unrolled;
+    }
+
+    public static boolean isUnrolled() {
+        return unrolled;
+    }
+
+    /**
+     * Computes <code>p[t] = phi[t] * (counts[t] + alpha)</code>
+     *
+     * @return sum of <code>p</code>
+     */
+    static double weights(double[] phi, int[] counts, double alpha, double[] p, int n) {
+        if (!unrolled) {
+            double sum = 0d;
+            for (int t = 0; t < n; t++) {
+                p[t] = phi[t] * (counts[t] + alpha);
+                sum += p[t];
+            }
+            return sum;
+        }
+        double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+        int t = 0;
+        for (; t + 3 < n; t += 4) {
+            double p0 = phi[t] * (counts[t] + alpha);
+            double p1 = phi[t + 1] * (counts[t + 1] + alpha);
+            double p2 = phi[t + 2] * (counts[t + 2] + alpha);
+            double p3 = phi[t + 3] * (counts[t + 3] + alpha);
+            p[t] = p0;
+            p[t + 1] = p1;
+            p[t + 2] = p2;
+            p[t + 3] = p3;
+            s0 += p0;
+            s1 += p1;
+            s2 += p2;
+            s3 += p3;
+        }
+        for (; t < n; t++) {
+            p[t] = phi[t] * (counts[t] + alpha);
+            s0 += p[t];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Draws an index with probability proportional to weights
+     *
+     * @param u - uniform value between 0 and the sum of weights
+     */
+    static int sample(double[] p, double u, int n) {
+        double sum = 0d;
+        int t = 0;
+        if (unrolled) {
+            //skip blocks of four at a time, leaving at least the last weight to the plain loop, so that
+            //a value of u past the sum of blocks (summed in another order than the weights) yields n - 1
+            for (; t + 4 < n; t += 4) {
+                double block = (p[t] + p[t + 1]) + (p[t + 2] + p[t + 3]);
+                if (sum + block > u) {
+                    break;
+                }
+                sum += block;
+            }
+        }
+        for (; t < n - 1; t++) {
+            sum += p[t];
+            if (sum > u) {
+                break;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return dot product of the first <code>n</code> elements
+     */
+    static double dot(double[] a, double[] b, int n) {
+        if (!unrolled) {
+            double sum = 0d;
+            for (int t = 0; t < n; t++) {
+                sum += a[t] * b[t];
+            }
+            return sum;
+        }
+        double s0 = 0d, s1 = 0d, s2 = 0d, s3 = 0d;
+        int t = 0;
+        for (; t + 3 < n; t += 4) {
+            s0 += a[t] * b[t];
+            s1 += a[t + 1] * b[t + 1];
+            s2 += a[t + 2] * b[t + 2];
+            s3 += a[t + 3] * b[t + 3];
+        }
+        for (; t < n; t++) {
+            s0 += a[t] * b[t];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Computes <code>target[t] += (counts[t] + prior[t]) * scale</code>
+     */
+    static void addSmoothed(int[] counts, double[] prior, double scale, double[] target, int n) {
+        int t = 0;
+        if (unrolled) {
+            for (; t + 3 < n; t += 4) {
+                target[t] += (counts[t] + prior[t]) * scale;
+                target[t + 1] += (counts[t + 1] + prior[t + 1]) * scale;
+                target[t + 2] += (counts[t + 2] + prior[t + 2]) * scale;
+                target[t + 3] += (counts[t + 3] + prior[t + 3]) * scale;
+            }
+        }
+        for (; t < n; t++) {
+            target[t] += (counts[t] + prior[t]) * scale;
+        }
+    }
+
+    /**
+     * Computes <code>target[t] = source[t] * scale</code>
+     */
+    static void scale(double[] source, double scale, double[] target, int n) {
+        int t = 0;
+        if (unrolled) {
+            for (; t + 3 < n; t += 4) {
+                target[t] = source[t] * scale;
+                target[t + 1] = source[t + 1] * scale;
+                target[t + 2] = source[t + 2] * scale;
+                target[t + 3] = source[t + 3] * scale;
+            }
+        }
+        for (; t < n; t++) {
+            target[t] = source[t] * scale;
+        }
+    }
+}
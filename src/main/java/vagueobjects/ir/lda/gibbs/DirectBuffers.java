@@ -0,0 +1,77 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation and explicit release of direct (off-heap) buffers
+ */
+final class DirectBuffers {
+    private static Logger logger = Logger.getLogger(DirectBuffers.class);
+    /**
+     * Largest number of ints held by a single buffer
+     */
+    static final int MAX_CHUNK_INTS = 1 << 28;
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * @param size - number of ints the buffer holds
+     */
+    static ByteBuffer allocateInts(int size) {
+        return ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Frees memory of a buffer without waiting for garbage collection. Neither the buffer nor its views
+     * may be used afterwards.
+     */
+    static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            clean(buffer);
+        } catch (Exception e) {
+            logger.debug("Direct buffer left for garbage collection: " + e);
+        }
+    }
+
+    private static void clean(ByteBuffer buffer) throws Exception {
+        try {
+            //Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.text.DecimalFormat;
+import java.util.Random;
+
+/**
+ * Samples a shard of documents against word-topic counts held by a {@link ParameterServer}.
+ * After each sweep over its shard, the worker pushes changes of its topic assignments to the server,
+ * and replaces the rows of its local counts that changed with the global ones pulled from the server. Workers may run in
+ * separate processes or on separate hosts.
+ */
+public class DistributedWorker {
+    private static Logger logger = Logger.getLogger(DistributedWorker.class);
+    private static DecimalFormat df = new DecimalFormat("##.##");
+    private final int workerId;
+    private final int numberOfTopics;
+    private final int vocabularySize;
+    private final double alpha;
+    private final double beta;
+    private final int[][] tokensInDocuments;
+    private final int[][] z;
+    private final int[][] nd;
+    /**
+     * Topic assignments as of the latest push
+     */
+    private final int[][] pushed;
+    private WordTopicCounts nw;
+    private final int[] nwSum;
+    /**
+     * Highest number of instances of any token in the shard, by which a local count may grow in a sweep
+     */
+    private final int maxFrequency;
+    //Statistics
+    private long tokens;
+    private long samplingNanos;
+    private long syncNanos;
+
+    /**
+     * @param workerId          - index of the worker, from 0 to the number of workers less one
+     * @param numberOfTopics    - number of topics to extract
+     * @param vocabularySize    - size of vocabulary used
+     * @param tokensInDocuments - shard of documents owned by the worker
+     */
+    public DistributedWorker(int workerId, int numberOfTopics, int vocabularySize, int[][] tokensInDocuments) {
+        this(workerId, numberOfTopics, vocabularySize, Math.min(1d, 50.0d / numberOfTopics), 0.01, tokensInDocuments);
+    }
+
+    /**
+     * @param workerId          - index of the worker, from 0 to the number of workers less one
+     * @param numberOfTopics    - number of topics to extract
+     * @param vocabularySize    - size of vocabulary used
+     * @param alpha             - document-topic prior
+     * @param beta              - topic-word prior, same as the one of the parameter server
+     * @param tokensInDocuments - shard of documents owned by the worker
+     */
+    public DistributedWorker(int workerId, int numberOfTopics, int vocabularySize, double alpha, double beta,
+                             int[][] tokensInDocuments) {
+        this.workerId = workerId;
+        this.numberOfTopics = numberOfTopics;
+        this.vocabularySize = vocabularySize;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.tokensInDocuments = tokensInDocuments;
+        int numDocs = tokensInDocuments.length;
+        this.z = new int[numDocs][];
+        this.pushed = new int[numDocs][];
+        this.nd = new int[numDocs][numberOfTopics];
+        this.nw = new SparseMatrix(vocabularySize, numberOfTopics);
+        this.nwSum = new int[numberOfTopics];
+        int[] frequencies = new int[vocabularySize];
+        int max = 0;
+        for (int[] tokens : tokensInDocuments) {
+            for (int w : tokens) {
+                max = Math.max(max, ++frequencies[w]);
+            }
+        }
+        this.maxFrequency = max;
+    }
+
+    /**
+     * Runs the sampling of the shard
+     *
+     * @param host               - host of the parameter server
+     * @param port               - port of the parameter server
+     * @param numberOfIterations - number of sweeps over the shard
+     * @param random             - an instance of the <code>Random</code> class used for simulation
+     */
+    public void execute(String host, int port, int numberOfIterations, Random random) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(ParameterServer.HELLO);
+            out.writeInt(workerId);
+
+            for (int d = 0; d < tokensInDocuments.length; ++d) {
+                int nbrTokensInDoc = tokensInDocuments[d].length;
+                if (nbrTokensInDoc <= 1) {
+                    throw new IllegalArgumentException("Too few tokens (" + nbrTokensInDoc + ") in document #" + d);
+                }
+                z[d] = new int[nbrTokensInDoc];
+                pushed[d] = new int[nbrTokensInDoc];
+                for (int w = 0; w < nbrTokensInDoc; w++) {
+                    int topic = (int) (random.nextDouble() * numberOfTopics);
+                    z[d][w] = topic;
+                    nd[d][topic]++;
+                }
+            }
+            push(out, 0, true);
+            pull(in, out, 0);
+
+            for (int step = 1; step <= numberOfIterations; ++step) {
+                long start = System.nanoTime();
+                SparseSweep sweep = new SparseSweep(numberOfTopics, alpha, beta, vocabularySize, nw, nwSum);
+                sweep.begin();
+                for (int d = 0; d < tokensInDocuments.length; d++) {
+                    sweep.sample(tokensInDocuments[d], z[d], nd[d], random);
+                    tokens += tokensInDocuments[d].length;
+                }
+                samplingNanos += System.nanoTime() - start;
+                push(out, step, false);
+                pull(in, out, step);
+                logger.debug("Worker " + workerId + " completed step " + step + " out of " + numberOfIterations);
+            }
+            out.writeInt(ParameterServer.DONE);
+            out.writeLong(tokens);
+            out.writeLong(samplingNanos);
+            out.writeLong(syncNanos);
+            out.flush();
+            logger.info("Worker " + workerId + " done: " + describe(tokens, samplingNanos, syncNanos));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Sends changes of topic assignments since the latest push
+     *
+     * @param initial - whether all assignments are to be sent
+     */
+    private void push(DataOutputStream out, int clock, boolean initial) throws IOException {
+        long start = System.nanoTime();
+        int n = 0;
+        for (int d = 0; d < z.length; ++d) {
+            for (int w = 0; w < z[d].length; ++w) {
+                if (initial) {
+                    n++;
+                } else if (z[d][w] != pushed[d][w]) {
+                    n += 2;
+                }
+            }
+        }
+        out.writeInt(ParameterServer.PUSH);
+        out.writeInt(clock);
+        out.writeInt(n);
+        for (int d = 0; d < z.length; ++d) {
+            for (int w = 0; w < z[d].length; ++w) {
+                int wid = tokensInDocuments[d][w];
+                if (initial) {
+                    out.writeInt(wid);
+                    out.writeInt(z[d][w]);
+                    out.writeInt(1);
+                } else if (z[d][w] != pushed[d][w]) {
+                    out.writeInt(wid);
+                    out.writeInt(pushed[d][w]);
+                    out.writeInt(-1);
+                    out.writeInt(wid);
+                    out.writeInt(z[d][w]);
+                    out.writeInt(1);
+                }
+                pushed[d][w] = z[d][w];
+            }
+        }
+        syncNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Replaces rows of local word-topic counts that changed since the latest pull with global ones
+     */
+    private void pull(DataInputStream in, DataOutputStream out, int clock) throws IOException {
+        long start = System.nanoTime();
+        out.writeInt(ParameterServer.PULL);
+        out.writeInt(clock);
+        out.flush();
+        for (int t = 0; t < numberOfTopics; t++) {
+            nwSum[t] = in.readInt();
+        }
+        int numberOfRows = in.readInt();
+        for (int r = 0; r < numberOfRows; r++) {
+            int w = in.readInt();
+            int length = in.readInt();
+            int[] topics = new int[length];
+            int[] counts = new int[length];
+            int max = 0;
+            for (int i = 0; i < length; ++i) {
+                topics[i] = in.readInt();
+                counts[i] = in.readInt();
+                max = Math.max(max, counts[i]);
+            }
+            if (nw instanceof SparseMatrix && !SparseMatrix.fits(max + maxFrequency, numberOfTopics)) {
+                logger.info("Counts do not fit packed rows, switching to wide rows");
+                nw = WideSparseMatrix.of((SparseMatrix) nw);
+            }
+            nw.setRow(w, topics, counts, length);
+        }
+        syncNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return document-topic associations for documents of the shard
+     */
+    public double[][] getTheta() {
+        double[][] theta = new double[tokensInDocuments.length][numberOfTopics];
+        for (int d = 0; d < tokensInDocuments.length; d++) {
+            for (int t = 0; t < numberOfTopics; t++) {
+                theta[d][t] = (nd[d][t] + alpha) / (tokensInDocuments[d].length + numberOfTopics * alpha);
+            }
+        }
+        return theta;
+    }
+
+    /**
+     * @return number of tokens sampled per second of sampling
+     */
+    public double getThroughput() {
+        return samplingNanos == 0 ? 0 : tokens * 1e9 / samplingNanos;
+    }
+
+    /**
+     * @return share of time spent on exchanging counts with the server, including waits for slower workers
+     */
+    public double getSyncOverhead() {
+        long total = samplingNanos + syncNanos;
+        return total == 0 ? 0 : (double) syncNanos / total;
+    }
+
+    static String describe(long tokens, long samplingNanos, long syncNanos) {
+        double throughput = samplingNanos == 0 ? 0 : tokens * 1e9 / samplingNanos;
+        long total = samplingNanos + syncNanos;
+        double overhead = total == 0 ? 0 : 100d * syncNanos / total;
+        return tokens + " tokens, " + df.format(throughput) + " tokens/s, sync overhead " + df.format(overhead) + "%";
+    }
+}
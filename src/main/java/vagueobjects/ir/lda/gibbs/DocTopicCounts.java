@@ -0,0 +1,56 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Number of tokens in each document assigned to each topic. Rows are handed out as <code>int[]</code>
+ * so that samplers work on plain arrays; implementations that keep counts elsewhere copy them
+ * into the buffer supplied and expect them back through {@link #store}.
+ */
+interface DocTopicCounts {
+
+    /**
+     * @param buffer - array of size <code>numberOfTopics</code> that may be used to hold the row
+     * @return counts of the document, either the buffer or an array owned by this object
+     */
+    int[] row(int d, int[] buffer);
+
+    /**
+     * Saves the counts of a document obtained from {@link #row}
+     */
+    void store(int d, int[] row);
+
+    /**
+     * @return number of tokens of the document assigned to the topic
+     */
+    int get(int d, int t);
+
+    /**
+     * Changes a single count, without copying the row of the document
+     *
+     * @param delta - change of the count
+     * @return new count
+     */
+    int add(int d, int t, int delta);
+
+    /**
+     * Makes room for more documents; rows of new documents are all zeros
+     */
+    void ensureCapacity(int numDocs);
+}
@@ -0,0 +1,130 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.log4j.Logger;
+
+import java.util.Random;
+
+/**
+ * Topic assignments and counts of a sparse Gibbs sampler over a corpus, for samplers that run several of
+ * them side by side. Only the corpus may be shared between instances.
+ */
+class GibbsChain {
+    private static Logger logger = Logger.getLogger(GibbsChain.class);
+    final int numberOfTopics;
+    final double alpha;
+    final double beta;
+    final int vocabularySize;
+    final int[][] tokensInDocuments;
+    final int[][] z;
+    final int[][] nd;
+    final WordTopicCounts nw;
+    final int[] nwSum;
+    private final Random random;
+    private final SparseSweep sweep;
+
+    /**
+     * Assigns tokens to topics at random
+     *
+     * @param tokensInDocuments - token IDs of each document
+     * @param vocabularySize    - size of vocabulary used
+     * @param numberOfTopics    - number of topics to extract
+     * @param alpha             - document-topic prior
+     * @param beta              - topic-word prior
+     * @param maxFrequency      - highest number of instances of a token in the corpus
+     * @param random            - an instance of the <code>Random</code> class used for simulation
+     */
+    GibbsChain(int[][] tokensInDocuments, int vocabularySize, int numberOfTopics, double alpha, double beta,
+               int maxFrequency, Random random) {
+        this.tokensInDocuments = tokensInDocuments;
+        this.vocabularySize = vocabularySize;
+        this.numberOfTopics = numberOfTopics;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.random = random;
+        if (SparseMatrix.fits(maxFrequency, numberOfTopics)) {
+            nw = new SparseMatrix(vocabularySize, numberOfTopics);
+        } else {
+            logger.debug("Using wide entries for token frequency " + maxFrequency);
+            nw = new WideSparseMatrix(vocabularySize, numberOfTopics);
+        }
+        nwSum = new int[numberOfTopics];
+        int numDocs = tokensInDocuments.length;
+        z = new int[numDocs][];
+        nd = new int[numDocs][numberOfTopics];
+        for (int d = 0; d < numDocs; ++d) {
+            z[d] = new int[tokensInDocuments[d].length];
+            for (int w = 0; w < z[d].length; w++) {
+                int topic = (int) (random.nextDouble() * numberOfTopics);
+                z[d][w] = topic;
+                nw.increment(tokensInDocuments[d][w], topic);
+                nd[d][topic]++;
+                nwSum[topic]++;
+            }
+        }
+        sweep = new SparseSweep(numberOfTopics, alpha, beta, vocabularySize, nw, nwSum);
+    }
+
+    /**
+     * Re-samples topic assignments of all tokens in the corpus
+     */
+    void sweep() {
+        sweep.begin();
+        for (int d = 0; d < z.length; d++) {
+            sweep.sample(tokensInDocuments[d], z[d], nd[d], random);
+        }
+    }
+
+    /**
+     * @return topic-token associations estimated from the current counts
+     */
+    double[][] estimatePhi() {
+        double nBeta = vocabularySize * beta;
+        double[] inverse = new double[numberOfTopics];
+        for (int t = 0; t < numberOfTopics; t++) {
+            inverse[t] = 1d / (nwSum[t] + nBeta);
+        }
+        double[][] phi = new double[numberOfTopics][vocabularySize];
+        double[] column = new double[numberOfTopics];
+        for (int w = 0; w < vocabularySize; w++) {
+            for (int t = 0; t < numberOfTopics; t++) {
+                column[t] = beta * inverse[t];
+            }
+            nw.accumulate(w, inverse, column);
+            for (int t = 0; t < numberOfTopics; t++) {
+                phi[t][w] = column[t];
+            }
+        }
+        return phi;
+    }
+
+    /**
+     * @return document-topic associations estimated from the current counts
+     */
+    double[][] estimateTheta() {
+        double[][] theta = new double[z.length][numberOfTopics];
+        for (int d = 0; d < z.length; d++) {
+            for (int t = 0; t < numberOfTopics; t++) {
+                theta[d][t] = (nd[d][t] + alpha) / (z[d].length + numberOfTopics * alpha);
+            }
+        }
+        return theta;
+    }
+}
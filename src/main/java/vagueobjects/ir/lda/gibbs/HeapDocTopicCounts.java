@@ -0,0 +1,61 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Document-topic counts kept in an <code>int[][]</code> array; rows are handed out without copying.
+ */
+class HeapDocTopicCounts implements DocTopicCounts {
+    private final int numberOfTopics;
+    private int[][] nd;
+
+    HeapDocTopicCounts(int numDocs, int numberOfTopics) {
+        this.numberOfTopics = numberOfTopics;
+        this.nd = new int[numDocs][numberOfTopics];
+    }
+
+    public int[] row(int d, int[] buffer) {
+        return nd[d];
+    }
+
+    public void store(int d, int[] row) {
+        if (row != nd[d]) {
+            System.arraycopy(row, 0, nd[d], 0, numberOfTopics);
+        }
+    }
+
+    public int get(int d, int t) {
+        return nd[d][t];
+    }
+
+    public int add(int d, int t, int delta) {
+        return nd[d][t] += delta;
+    }
+
+    public void ensureCapacity(int numDocs) {
+        if (numDocs > nd.length) {
+            int[][] _nd = new int[numDocs][];
+            System.arraycopy(nd, 0, _nd, 0, nd.length);
+            for (int d = nd.length; d < numDocs; ++d) {
+                _nd[d] = new int[numberOfTopics];
+            }
+            nd = _nd;
+        }
+    }
+}
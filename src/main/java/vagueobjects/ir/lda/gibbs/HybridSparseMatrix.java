@@ -0,0 +1,233 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Word-topic counts where rows spread over many topics are kept dense, while the rest are kept
+ * in a {@link SparseMatrix}. For frequent tokens, which are assigned to many topics, the linear scans
+ * and re-sorting of sparse rows become expensive; a dense row is updated in constant time, and keeps
+ * an unordered index of its non-zero topics for the iteration over the q bucket.
+ * <p/>
+ * A row becomes dense once it holds more than <code>denseThreshold</code> topics (or a count that does
+ * not fit into a packed entry), and becomes sparse again once it holds fewer than half as many.
+ */
+class HybridSparseMatrix implements WordTopicCounts {
+    final SparseMatrix sparse;
+    private final int numberOfTopics;
+    private final int denseThreshold;
+    /**
+     * Counts of dense rows, <code>null</code> for sparse rows
+     */
+    private final int[][] dense;
+    /**
+     * Non-zero topics of dense rows, in no particular order
+     */
+    private final int[][] nonZero;
+    private final int[] nonZeroSize;
+    /**
+     * Position of each topic within <code>nonZero</code>
+     */
+    private final int[][] position;
+    private final int maxPackedCount;
+
+    HybridSparseMatrix(int numRows, int numberOfTopics, int denseThreshold) {
+        this.sparse = new SparseMatrix(numRows, numberOfTopics);
+        this.numberOfTopics = numberOfTopics;
+        this.denseThreshold = denseThreshold;
+        this.dense = new int[numRows][];
+        this.nonZero = new int[numRows][];
+        this.nonZeroSize = new int[numRows];
+        this.position = new int[numRows][];
+        this.maxPackedCount = (1 << (31 - sparse.shift)) - 1;
+    }
+
+    boolean isDense(int r) {
+        return dense[r] != null;
+    }
+
+    public int size(int r) {
+        return dense[r] != null ? nonZeroSize[r] : sparse.size(r);
+    }
+
+    public int get(int w, int t) {
+        return dense[w] != null ? dense[w][t] : sparse.get(w, t);
+    }
+
+    public void increment(int r, int t) {
+        if (dense[r] == null) {
+            int[] row = sparse.array[r];
+            if (row.length >= denseThreshold || (row.length > 0 && row[row.length - 1] >> sparse.shift >= maxPackedCount)) {
+                toDense(r);
+            } else {
+                sparse.increment(r, t);
+                return;
+            }
+        }
+        if (dense[r][t]++ == 0) {
+            nonZero[r][nonZeroSize[r]] = t;
+            position[r][t] = nonZeroSize[r]++;
+        }
+    }
+
+    public void decrement(int r, int t) {
+        if (dense[r] == null) {
+            sparse.decrement(r, t);
+            return;
+        }
+        if (dense[r][t] == 0) {
+            throw new IllegalStateException("Could not find the key: " + t);
+        }
+        if (--dense[r][t] == 0) {
+            //move the last non-zero topic into the freed position
+            int last = nonZero[r][--nonZeroSize[r]];
+            nonZero[r][position[r][t]] = last;
+            position[r][last] = position[r][t];
+            if (nonZeroSize[r] < denseThreshold / 2) {
+                toSparse(r);
+            }
+        }
+    }
+
+    public void setRow(int r, int[] topics, int[] counts, int size) {
+        boolean packed = size < denseThreshold;
+        for (int i = 0; i < size && packed; ++i) {
+            packed = counts[i] <= maxPackedCount;
+        }
+        if (packed) {
+            dense[r] = null;
+            nonZero[r] = null;
+            position[r] = null;
+            nonZeroSize[r] = 0;
+            sparse.setRow(r, topics, counts, size);
+        } else {
+            if (dense[r] == null) {
+                toDense(r);
+            }
+            for (int i = 0; i < nonZeroSize[r]; ++i) {
+                dense[r][nonZero[r][i]] = 0;
+            }
+            for (int i = 0; i < size; ++i) {
+                dense[r][topics[i]] = counts[i];
+                nonZero[r][i] = topics[i];
+                position[r][topics[i]] = i;
+            }
+            nonZeroSize[r] = size;
+        }
+    }
+
+    public double weightedSum(int w, double[] coefficients) {
+        if (dense[w] == null) {
+            return sparse.weightedSum(w, coefficients);
+        }
+        int[] counts = dense[w];
+        int[] topics = nonZero[w];
+        double sum = 0d;
+        for (int i = 0; i < nonZeroSize[w]; ++i) {
+            int t = topics[i];
+            sum += coefficients[t] * counts[t];
+        }
+        return sum;
+    }
+
+    public int row(int w, int[] topics, int[] counts) {
+        if (dense[w] == null) {
+            return sparse.row(w, topics, counts);
+        }
+        for (int i = 0; i < nonZeroSize[w]; ++i) {
+            topics[i] = nonZero[w][i];
+            counts[i] = dense[w][topics[i]];
+        }
+        return nonZeroSize[w];
+    }
+
+    public void accumulate(int w, double[] coefficients, double[] target) {
+        if (dense[w] == null) {
+            sparse.accumulate(w, coefficients, target);
+            return;
+        }
+        int[] counts = dense[w];
+        int[] topics = nonZero[w];
+        for (int i = 0; i < nonZeroSize[w]; ++i) {
+            int t = topics[i];
+            target[t] += coefficients[t] * counts[t];
+        }
+    }
+
+    public int sample(int w, double[] coefficients, double u) {
+        if (dense[w] == null) {
+            return sparse.sample(w, coefficients, u);
+        }
+        int[] counts = dense[w];
+        int[] topics = nonZero[w];
+        assert nonZeroSize[w] > 0;
+        int topic = 0;
+        double sum = 0d;
+        for (int i = 0; i < nonZeroSize[w]; ++i) {
+            topic = topics[i];
+            sum += coefficients[topic] * counts[topic];
+            if (sum > u) {
+                break;
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * Converts a row into the dense form
+     */
+    void toDense(int r) {
+        if (dense[r] != null) {
+            return;
+        }
+        dense[r] = new int[numberOfTopics];
+        nonZero[r] = new int[numberOfTopics];
+        position[r] = new int[numberOfTopics];
+        int size = 0;
+        //largest counts first, so that the q bucket is likely to stop early
+        int[] row = sparse.array[r];
+        for (int i = row.length - 1; i >= 0; --i) {
+            int t = row[i] & sparse.mask;
+            dense[r][t] = row[i] >> sparse.shift;
+            nonZero[r][size] = t;
+            position[r][t] = size++;
+        }
+        nonZeroSize[r] = size;
+        sparse.array[r] = new int[0];
+    }
+
+    private void toSparse(int r) {
+        int[] counts = dense[r];
+        int size = nonZeroSize[r];
+        int[] topics = new int[size];
+        int[] values = new int[size];
+        for (int i = 0; i < size; ++i) {
+            topics[i] = nonZero[r][i];
+            values[i] = counts[topics[i]];
+            if (values[i] > maxPackedCount) {
+                //too large to be packed, stay dense
+                return;
+            }
+        }
+        sparse.setRow(r, topics, values);
+        dense[r] = null;
+        nonZero[r] = null;
+        position[r] = null;
+        nonZeroSize[r] = 0;
+    }
+}
@@ -0,0 +1,267 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Model-parallel version of the sparse Gibbs sampler. The vocabulary is split into P blocks of words, and
+ * documents into P blocks of documents, both balanced by number of tokens. Each word block has its own
+ * word-topic counts. An iteration consists of P rounds; in round <code>r</code>, worker <code>i</code> samples
+ * tokens of document block <code>i</code> that belong to word block <code>(i + r) mod P</code>. Hence every
+ * block of word-topic counts, as well as every row of document-topic counts, is used by a single worker
+ * at a time, and no locking is needed. Topic totals are copied per worker and reconciled after each round.
+ */
+public class ModelParallelSampler {
+    private static Logger logger = Logger.getLogger(ModelParallelSampler.class);
+    private final int numberOfTopics;
+    private final int numberOfIterations;
+    private final int numberOfWorkers;
+    /**
+     * Document-topic association
+     */
+    private final double alpha;
+    /**
+     * Topic-term association
+     */
+    private final double beta;
+    private double[][] phi;
+    private double[][] theta;
+
+    /**
+     * @param numberOfTopics     - number of topics to extract
+     * @param numberOfIterations - number of iterations the sampler will perform
+     * @param numberOfWorkers    - number of worker threads, as well as number of word and document blocks
+     */
+    public ModelParallelSampler(int numberOfTopics, int numberOfIterations, int numberOfWorkers) {
+        this.numberOfTopics = numberOfTopics;
+        this.numberOfIterations = numberOfIterations;
+        this.numberOfWorkers = numberOfWorkers;
+        this.alpha = Math.min(1d, 50.0d / numberOfTopics);
+        this.beta = 0.01;
+    }
+
+    public void execute(int[][] tokensInDocuments, int vocabularySize) {
+        execute(tokensInDocuments, vocabularySize, new Random());
+    }
+
+    /**
+     * Runs the sampling
+     *
+     * @param tokensInDocuments - an array where the first dimension represents the
+     *                          document index, and each document (row) is defined by a set of token IDs.
+     * @param vocabularySize    - size of vocabulary used
+     * @param random            - an instance of the <code>Random</code> class used for simulation
+     */
+    public void execute(final int[][] tokensInDocuments, int vocabularySize, Random random) {
+        final int P = numberOfWorkers;
+        int numDocs = tokensInDocuments.length;
+        //split words into blocks with about the same number of tokens
+        int[] frequencies = new int[vocabularySize];
+        for (int[] doc : tokensInDocuments) {
+            for (int wid : doc) {
+                frequencies[wid]++;
+            }
+        }
+        final int[] wordBounds = balance(frequencies, P);
+        int[] blockOfWord = new int[vocabularySize];
+        for (int b = 0; b < P; ++b) {
+            for (int w = wordBounds[b]; w < wordBounds[b + 1]; ++w) {
+                blockOfWord[w] = b;
+            }
+        }
+        int[] docLengths = new int[numDocs];
+        for (int d = 0; d < numDocs; ++d) {
+            docLengths[d] = tokensInDocuments[d].length;
+        }
+        final int[] docBounds = balance(docLengths, P);
+
+        //group tokens of each document by word block, using IDs local to the block
+        final int[][] tokens = new int[numDocs][];
+        final int[][] blockStarts = new int[numDocs][P + 1];
+        for (int d = 0; d < numDocs; ++d) {
+            if (docLengths[d] <= 1) {
+                throw new IllegalArgumentException("Too few tokens (" + docLengths[d] + ") in document #" + d);
+            }
+            for (int wid : tokensInDocuments[d]) {
+                blockStarts[d][blockOfWord[wid] + 1]++;
+            }
+            for (int b = 0; b < P; ++b) {
+                blockStarts[d][b + 1] += blockStarts[d][b];
+            }
+            int[] next = blockStarts[d].clone();
+            tokens[d] = new int[docLengths[d]];
+            for (int wid : tokensInDocuments[d]) {
+                int b = blockOfWord[wid];
+                tokens[d][next[b]++] = wid - wordBounds[b];
+            }
+        }
+
+        final WordTopicCounts[] nw = new WordTopicCounts[P];
+        for (int b = 0; b < P; ++b) {
+            int maxFrequency = 0;
+            for (int w = wordBounds[b]; w < wordBounds[b + 1]; ++w) {
+                maxFrequency = Math.max(maxFrequency, frequencies[w]);
+            }
+            if (SparseMatrix.fits(maxFrequency, numberOfTopics)) {
+                nw[b] = new SparseMatrix(wordBounds[b + 1] - wordBounds[b], numberOfTopics);
+            } else {
+                logger.info("Using wide entries for token frequency " + maxFrequency + " in block " + b);
+                nw[b] = new WideSparseMatrix(wordBounds[b + 1] - wordBounds[b], numberOfTopics);
+            }
+        }
+        final int[] nwSum = new int[numberOfTopics];
+        final int[][] nd = new int[numDocs][numberOfTopics];
+        final int[][] z = new int[numDocs][];
+        for (int d = 0; d < numDocs; ++d) {
+            z[d] = new int[docLengths[d]];
+            for (int b = 0; b < P; ++b) {
+                for (int w = blockStarts[d][b]; w < blockStarts[d][b + 1]; ++w) {
+                    int topic = (int) (random.nextDouble() * numberOfTopics);
+                    z[d][w] = topic;
+                    nw[b].increment(tokens[d][w], topic);
+                    nd[d][topic]++;
+                    nwSum[topic]++;
+                }
+            }
+        }
+
+        final int[][] localNwSum = new int[P][];
+        final Random[] randoms = new Random[P];
+        for (int i = 0; i < P; ++i) {
+            randoms[i] = new Random(random.nextLong());
+        }
+        final int V = vocabularySize;
+        ExecutorService executor = Executors.newFixedThreadPool(P);
+        try {
+            logger.debug("Initialization complete. Entering main loop.");
+            for (int step = 0; step < numberOfIterations; ++step) {
+                for (int round = 0; round < P; ++round) {
+                    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+                    for (int i = 0; i < P; ++i) {
+                        final int docBlock = i;
+                        final int wordBlock = (i + round) % P;
+                        localNwSum[i] = nwSum.clone();
+                        tasks.add(new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                SparseSweep sweep = new SparseSweep(numberOfTopics, alpha, beta, V,
+                                        nw[wordBlock], localNwSum[docBlock]);
+                                sweep.begin();
+                                for (int d = docBounds[docBlock]; d < docBounds[docBlock + 1]; ++d) {
+                                    int from = blockStarts[d][wordBlock];
+                                    int to = blockStarts[d][wordBlock + 1];
+                                    if (from < to) {
+                                        sweep.sample(tokens[d], z[d], nd[d], from, to, randoms[docBlock]);
+                                    }
+                                }
+                                return null;
+                            }
+                        });
+                    }
+                    for (Future<Object> future : executor.invokeAll(tasks)) {
+                        future.get();
+                    }
+                    //reconcile topic totals
+                    for (int t = 0; t < numberOfTopics; ++t) {
+                        int total = nwSum[t];
+                        for (int i = 0; i < P; ++i) {
+                            total += localNwSum[i][t] - nwSum[t];
+                        }
+                        nwSum[t] = total;
+                    }
+                }
+                logger.debug("Completed step " + step + " out of " + numberOfIterations);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        double nBeta = vocabularySize * beta;
+        double[] inverse = new double[numberOfTopics];
+        for (int t = 0; t < numberOfTopics; t++) {
+            inverse[t] = 1d / (nwSum[t] + nBeta);
+        }
+        phi = new double[numberOfTopics][vocabularySize];
+        double[] column = new double[numberOfTopics];
+        for (int b = 0; b < P; ++b) {
+            for (int w = wordBounds[b]; w < wordBounds[b + 1]; w++) {
+                for (int t = 0; t < numberOfTopics; t++) {
+                    column[t] = beta * inverse[t];
+                }
+                nw[b].accumulate(w - wordBounds[b], inverse, column);
+                for (int t = 0; t < numberOfTopics; t++) {
+                    phi[t][w] = column[t];
+                }
+            }
+        }
+        theta = new double[numDocs][numberOfTopics];
+        for (int d = 0; d < numDocs; d++) {
+            for (int t = 0; t < numberOfTopics; t++) {
+                theta[d][t] = (nd[d][t] + alpha) / (docLengths[d] + numberOfTopics * alpha);
+            }
+        }
+        logger.info("Simulation complete ");
+    }
+
+    /**
+     * Splits a sequence of weights into contiguous ranges with about the same total weight
+     *
+     * @return P+1 bounds of the ranges
+     */
+    static int[] balance(int[] weights, int P) {
+        long total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int[] bounds = new int[P + 1];
+        long sum = 0;
+        int b = 1;
+        for (int i = 0; i < weights.length && b < P; ++i) {
+            sum += weights[i];
+            while (b < P && sum * P >= total * b) {
+                bounds[b++] = i + 1;
+            }
+        }
+        while (b <= P) {
+            bounds[b++] = weights.length;
+        }
+        return bounds;
+    }
+
+    public double[][] getPhi() {
+        return phi;
+    }
+
+    public double[][] getTheta() {
+        return theta;
+    }
+}
@@ -0,0 +1,294 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.commons.math.special.Gamma;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several independent chains of the sparse Gibbs sampler concurrently, one thread per chain, over the
+ * same corpus, which is shared rather than copied. Every <code>checkInterval</code> sweeps, the joint
+ * log-likelihood of each chain is recorded and the Gelman-Rubin statistic (R-hat) is computed over the
+ * latter half of the records; all chains stop once it falls below the threshold, or after
+ * <code>maxIterations</code> sweeps.
+ * <p/>
+ * Topics are not identified across chains (any permutation of topics is equally likely), so results
+ * are kept per chain.
+ */
+public class MultiChainSampler {
+    private static Logger logger = Logger.getLogger(MultiChainSampler.class);
+    private final int numberOfTopics;
+    private final int numberOfChains;
+    private final int maxIterations;
+    private final int checkInterval;
+    private final double rHatThreshold;
+    /**
+     * Document-topic association
+     */
+    private final double alpha;
+    /**
+     * Topic-term association
+     */
+    private final double beta;
+    private Chain[] chains;
+    private double rHat;
+    private int numberOfIterations;
+
+    public static final double DEFAULT_R_HAT_THRESHOLD = 1.05;
+    /**
+     * Least number of records per chain R-hat is computed over
+     */
+    static final int MIN_RECORDS = 4;
+
+    /**
+     * @param numberOfTopics - number of topics to extract
+     * @param numberOfChains - number of chains, each one run by its own thread
+     * @param maxIterations  - number of sweeps after which chains are stopped whether they agree or not
+     * @param checkInterval  - number of sweeps between convergence checks
+     */
+    public MultiChainSampler(int numberOfTopics, int numberOfChains, int maxIterations, int checkInterval) {
+        this(numberOfTopics, numberOfChains, maxIterations, checkInterval, DEFAULT_R_HAT_THRESHOLD);
+    }
+
+    /**
+     * @param numberOfTopics - number of topics to extract
+     * @param numberOfChains - number of chains, each one run by its own thread
+     * @param maxIterations  - number of sweeps after which chains are stopped whether they agree or not
+     * @param checkInterval  - number of sweeps between convergence checks
+     * @param rHatThreshold  - value of R-hat below which chains are deemed to have converged
+     */
+    public MultiChainSampler(int numberOfTopics, int numberOfChains, int maxIterations, int checkInterval,
+                             double rHatThreshold) {
+        if (numberOfChains < 2) {
+            throw new IllegalArgumentException("At least two chains are needed, got " + numberOfChains);
+        }
+        this.numberOfTopics = numberOfTopics;
+        this.numberOfChains = numberOfChains;
+        this.maxIterations = maxIterations;
+        this.checkInterval = checkInterval;
+        this.rHatThreshold = rHatThreshold;
+        this.alpha = Math.min(1d, 50.0d / numberOfTopics);
+        this.beta = 0.01;
+    }
+
+    public void execute(int[][] tokensInDocuments, int vocabularySize) {
+        execute(tokensInDocuments, vocabularySize, new Random());
+    }
+
+    /**
+     * Runs the chains until they converge
+     *
+     * @param tokensInDocuments - an array where the first dimension represents the
+     *                          document index, and each document (row) is defined by a set of token IDs.
+     * @param vocabularySize    - size of vocabulary used
+     * @param random            - an instance of the <code>Random</code> class the seeds of chains are drawn from
+     */
+    public void execute(int[][] tokensInDocuments, int vocabularySize, Random random) {
+        int[] frequencies = new int[vocabularySize];
+        for (int d = 0; d < tokensInDocuments.length; ++d) {
+            if (tokensInDocuments[d].length <= 1) {
+                throw new IllegalArgumentException("Too few tokens (" + tokensInDocuments[d].length
+                        + ") in document #" + d);
+            }
+            for (int wid : tokensInDocuments[d]) {
+                frequencies[wid]++;
+            }
+        }
+        int maxFrequency = 0;
+        for (int frequency : frequencies) {
+            maxFrequency = Math.max(maxFrequency, frequency);
+        }
+        chains = new Chain[numberOfChains];
+        for (int c = 0; c < numberOfChains; ++c) {
+            chains[c] = new Chain(tokensInDocuments, vocabularySize, maxFrequency, new Random(random.nextLong()));
+        }
+        List<double[]> records = new ArrayList<double[]>();
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfChains);
+        try {
+            rHat = Double.NaN;
+            numberOfIterations = 0;
+            while (numberOfIterations < maxIterations) {
+                final int sweeps = Math.min(checkInterval, maxIterations - numberOfIterations);
+                List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+                for (final Chain chain : chains) {
+                    tasks.add(new Callable<Double>() {
+                        @Override
+                        public Double call() {
+                            for (int i = 0; i < sweeps; ++i) {
+                                chain.sweep();
+                            }
+                            return chain.logLikelihood();
+                        }
+                    });
+                }
+                double[] record = new double[numberOfChains];
+                List<Future<Double>> futures = executor.invokeAll(tasks);
+                for (int c = 0; c < numberOfChains; ++c) {
+                    record[c] = futures.get(c).get();
+                }
+                records.add(record);
+                numberOfIterations += sweeps;
+
+                rHat = rHat(records.subList(records.size() / 2, records.size()));
+                logger.debug("Completed step " + numberOfIterations + " out of " + maxIterations
+                        + " log-likelihood=" + Arrays.toString(record) + " R-hat=" + rHat);
+                if (rHat < rHatThreshold) {
+                    logger.info("terminating since chains have converged, R-hat=" + rHat);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        for (Chain chain : chains) {
+            chain.estimate();
+        }
+        logger.info("Simulation complete after " + numberOfIterations + " iterations, R-hat=" + rHat);
+    }
+
+    /**
+     * Computes the potential scale reduction factor of Gelman and Rubin
+     *
+     * @param records - values of a statistic recorded for all chains at a time, in order
+     * @return R-hat, or <code>NaN</code> if there are too few records
+     */
+    static double rHat(List<double[]> records) {
+        int n = records.size();
+        if (n < MIN_RECORDS) {
+            return Double.NaN;
+        }
+        int m = records.get(0).length;
+        double[] means = new double[m];
+        for (double[] record : records) {
+            for (int c = 0; c < m; ++c) {
+                means[c] += record[c] / n;
+            }
+        }
+        double grandMean = 0d;
+        for (double mean : means) {
+            grandMean += mean / m;
+        }
+        double between = 0d;
+        for (double mean : means) {
+            between += (mean - grandMean) * (mean - grandMean);
+        }
+        between *= (double) n / (m - 1);
+        double within = 0d;
+        for (double[] record : records) {
+            for (int c = 0; c < m; ++c) {
+                within += (record[c] - means[c]) * (record[c] - means[c]);
+            }
+        }
+        within /= m * (n - 1d);
+        if (within == 0d) {
+            return between == 0d ? 1d : Double.POSITIVE_INFINITY;
+        }
+        double variance = (n - 1d) / n * within + between / n;
+        return Math.sqrt(variance / within);
+    }
+
+    /**
+     * @return value of R-hat at the last check, or <code>NaN</code> if chains were stopped before
+     *         there were enough records
+     */
+    public double getRHat() {
+        return rHat;
+    }
+
+    /**
+     * @return number of sweeps each chain has run
+     */
+    public int getNumberOfIterations() {
+        return numberOfIterations;
+    }
+
+    public int getNumberOfChains() {
+        return numberOfChains;
+    }
+
+    public double[][] getPhi(int chain) {
+        return chains[chain].phi;
+    }
+
+    public double[][] getTheta(int chain) {
+        return chains[chain].theta;
+    }
+
+    /**
+     * State of a chain; only the corpus is shared with other chains
+     */
+    private class Chain extends GibbsChain {
+        private double[][] phi;
+        private double[][] theta;
+
+        Chain(int[][] tokensInDocuments, int vocabularySize, int maxFrequency, Random random) {
+            super(tokensInDocuments, vocabularySize, MultiChainSampler.this.numberOfTopics,
+                    MultiChainSampler.this.alpha, MultiChainSampler.this.beta, maxFrequency, random);
+        }
+
+        /**
+         * @return log of the joint probability of tokens and topic assignments
+         */
+        double logLikelihood() {
+            double nBeta = vocabularySize * beta;
+            double logGammaBeta = Gamma.logGamma(beta);
+            double logLikelihood = numberOfTopics * Gamma.logGamma(nBeta);
+            for (int t = 0; t < numberOfTopics; ++t) {
+                logLikelihood -= Gamma.logGamma(nwSum[t] + nBeta);
+            }
+            int[] topics = new int[numberOfTopics];
+            int[] counts = new int[numberOfTopics];
+            for (int w = 0; w < vocabularySize; ++w) {
+                int size = nw.row(w, topics, counts);
+                for (int i = 0; i < size; ++i) {
+                    logLikelihood += Gamma.logGamma(counts[i] + beta) - logGammaBeta;
+                }
+            }
+            double kAlpha = numberOfTopics * alpha;
+            double logGammaAlpha = Gamma.logGamma(alpha);
+            for (int d = 0; d < z.length; ++d) {
+                logLikelihood += Gamma.logGamma(kAlpha) - Gamma.logGamma(z[d].length + kAlpha);
+                for (int count : nd[d]) {
+                    if (count > 0) {
+                        logLikelihood += Gamma.logGamma(count + alpha) - logGammaAlpha;
+                    }
+                }
+            }
+            return logLikelihood;
+        }
+
+        void estimate() {
+            phi = estimatePhi();
+            theta = estimateTheta();
+        }
+    }
+}
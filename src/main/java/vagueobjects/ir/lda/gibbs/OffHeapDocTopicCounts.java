@@ -0,0 +1,112 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Document-topic counts kept in direct buffers, so that they add neither to the heap size nor to
+ * garbage collection pauses. Documents are grouped into buffers of fixed size; adding documents
+ * allocates new buffers and leaves existing ones in place.
+ * <p/>
+ * The memory must be released with {@link #close()} once the counts are no longer used.
+ */
+class OffHeapDocTopicCounts implements DocTopicCounts, Closeable {
+    private final int numberOfTopics;
+    /**
+     * Number of documents per buffer
+     */
+    private final int docsPerChunk;
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private IntBuffer[] views = new IntBuffer[0];
+    /**
+     * Number of documents buffers are allocated for
+     */
+    private int capacity;
+
+    OffHeapDocTopicCounts(int numDocs, int numberOfTopics) {
+        this.numberOfTopics = numberOfTopics;
+        this.docsPerChunk = Math.max(1, DirectBuffers.MAX_CHUNK_INTS / numberOfTopics);
+        ensureCapacity(numDocs);
+    }
+
+    public int[] row(int d, int[] buffer) {
+        IntBuffer view = views[d / docsPerChunk];
+        view.position((d % docsPerChunk) * numberOfTopics);
+        view.get(buffer, 0, numberOfTopics);
+        return buffer;
+    }
+
+    public void store(int d, int[] row) {
+        IntBuffer view = views[d / docsPerChunk];
+        view.position((d % docsPerChunk) * numberOfTopics);
+        view.put(row, 0, numberOfTopics);
+    }
+
+    public int get(int d, int t) {
+        return views[d / docsPerChunk].get((d % docsPerChunk) * numberOfTopics + t);
+    }
+
+    public int add(int d, int t, int delta) {
+        IntBuffer view = views[d / docsPerChunk];
+        int index = (d % docsPerChunk) * numberOfTopics + t;
+        int count = view.get(index) + delta;
+        view.put(index, count);
+        return count;
+    }
+
+    public void ensureCapacity(int numDocs) {
+        if (numDocs <= capacity) {
+            return;
+        }
+        int numChunks = (numDocs + docsPerChunk - 1) / docsPerChunk;
+        int oldNumChunks = chunks.length;
+        chunks = Arrays.copyOf(chunks, numChunks);
+        views = Arrays.copyOf(views, numChunks);
+        //all buffers but the last one are full-sized, so only the last one may need to grow
+        int first = (capacity % docsPerChunk == 0) ? oldNumChunks : oldNumChunks - 1;
+        for (int c = first; c < numChunks; ++c) {
+            int docs = Math.min(docsPerChunk, numDocs - c * docsPerChunk);
+            ByteBuffer chunk = DirectBuffers.allocateInts(docs * numberOfTopics);
+            IntBuffer view = chunk.asIntBuffer();
+            if (c < oldNumChunks) {
+                views[c].clear();
+                view.put(views[c]);
+                DirectBuffers.release(chunks[c]);
+            }
+            chunks[c] = chunk;
+            views[c] = view;
+        }
+        capacity = numDocs;
+    }
+
+    /**
+     * Releases off-heap memory
+     */
+    public void close() {
+        for (ByteBuffer chunk : chunks) {
+            DirectBuffers.release(chunk);
+        }
+        chunks = new ByteBuffer[0];
+        views = new IntBuffer[0];
+        capacity = 0;
+    }
+}
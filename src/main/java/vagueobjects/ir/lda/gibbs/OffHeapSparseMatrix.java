@@ -0,0 +1,268 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap counterpart of {@link SparseMatrix}. Each row is a fixed slot within a direct buffer, holding
+ * the number of entries followed by the entries themselves, packed and sorted the same way as in
+ * <code>SparseMatrix</code>. Slots are sized up front, e.g. by the number of occurrences of each token
+ * (a token cannot be assigned to more topics than it has occurrences), so rows never move. The total
+ * size is not bound by the array size limit, since rows are spread over several buffers.
+ * <p/>
+ * The memory must be released with {@link #close()} once the matrix is no longer used.
+ */
+class OffHeapSparseMatrix implements WordTopicCounts, Closeable {
+    final int mask;
+    final int shift;
+    private final int[] capacities;
+    private ByteBuffer[] chunks;
+    private IntBuffer[] views;
+    /**
+     * Buffer holding each row
+     */
+    private final int[] chunkOfRow;
+    /**
+     * Position of each row within its buffer
+     */
+    private final int[] offsetOfRow;
+
+    /**
+     * @param capacities - maximal number of entries in each row
+     * @param maxKey     - number of keys (topics)
+     */
+    OffHeapSparseMatrix(int[] capacities, int maxKey) {
+        this.shift = SparseMatrix.minExponent(maxKey);
+        this.mask = (1 << shift) - 1;
+        this.capacities = capacities.clone();
+        int numRows = capacities.length;
+        this.chunkOfRow = new int[numRows];
+        this.offsetOfRow = new int[numRows];
+        //lay out rows, starting a new buffer when the current one is full
+        int numChunks = 0;
+        long used = DirectBuffers.MAX_CHUNK_INTS;
+        long[] chunkSizes = new long[1];
+        for (int r = 0; r < numRows; ++r) {
+            int slot = capacities[r] + 1;
+            if (used + slot > DirectBuffers.MAX_CHUNK_INTS) {
+                if (numChunks == chunkSizes.length) {
+                    long[] _sizes = new long[2 * numChunks];
+                    System.arraycopy(chunkSizes, 0, _sizes, 0, numChunks);
+                    chunkSizes = _sizes;
+                }
+                numChunks++;
+                used = 0;
+            }
+            chunkOfRow[r] = numChunks - 1;
+            offsetOfRow[r] = (int) used;
+            used += slot;
+            chunkSizes[numChunks - 1] = used;
+        }
+        chunks = new ByteBuffer[numChunks];
+        views = new IntBuffer[numChunks];
+        for (int c = 0; c < numChunks; ++c) {
+            //direct buffers are zeroed, so all rows start empty
+            chunks[c] = DirectBuffers.allocateInts((int) chunkSizes[c]);
+            views[c] = chunks[c].asIntBuffer();
+        }
+    }
+
+    public int size(int r) {
+        return views[chunkOfRow[r]].get(offsetOfRow[r]);
+    }
+
+    public int capacity(int r) {
+        return capacities[r];
+    }
+
+    public int get(int w, int t) {
+        IntBuffer buffer = views[chunkOfRow[w]];
+        int start = offsetOfRow[w] + 1;
+        for (int i = start + buffer.get(start - 1) - 1; i >= start; i--) {
+            int entry = buffer.get(i);
+            if ((entry & mask) == t) {
+                return entry >> shift;
+            }
+        }
+        return 0;
+    }
+
+    public void increment(int r, int t) {
+        IntBuffer buffer = views[chunkOfRow[r]];
+        int start = offsetOfRow[r] + 1;
+        int length = buffer.get(start - 1);
+        int end = start + length;
+        for (int i = start; i < end; ++i) {
+            int entry = buffer.get(i);
+            if ((entry & mask) == t) {
+                entry += 1 << shift;
+                //move the entry up until the row is sorted
+                int j = i + 1;
+                for (; j < end && buffer.get(j) < entry; ++j) {
+                    buffer.put(j - 1, buffer.get(j));
+                }
+                buffer.put(j - 1, entry);
+                return;
+            }
+        }
+        if (length == capacities[r]) {
+            throw new IllegalStateException("Row " + r + " is full (" + length + " entries)");
+        }
+        //a new entry has the smallest count, insert it near the beginning
+        int entry = (1 << shift) + t;
+        int j = end;
+        for (; j > start && buffer.get(j - 1) > entry; --j) {
+            buffer.put(j, buffer.get(j - 1));
+        }
+        buffer.put(j, entry);
+        buffer.put(start - 1, length + 1);
+    }
+
+    public void decrement(int r, int t) {
+        IntBuffer buffer = views[chunkOfRow[r]];
+        int start = offsetOfRow[r] + 1;
+        int length = buffer.get(start - 1);
+        int end = start + length;
+        for (int i = start; i < end; ++i) {
+            int entry = buffer.get(i);
+            if ((entry & mask) == t) {
+                entry -= 1 << shift;
+                if (entry >> shift == 0) {
+                    for (int j = i + 1; j < end; ++j) {
+                        buffer.put(j - 1, buffer.get(j));
+                    }
+                    buffer.put(start - 1, length - 1);
+                    return;
+                }
+                //move the entry down until the row is sorted
+                int j = i - 1;
+                for (; j >= start && buffer.get(j) > entry; --j) {
+                    buffer.put(j + 1, buffer.get(j));
+                }
+                buffer.put(j + 1, entry);
+                return;
+            }
+        }
+        throw new IllegalStateException("Could not find the key: " + t);
+    }
+
+    public void setRow(int r, int[] topics, int[] counts, int size) {
+        if (size > capacities[r]) {
+            throw new IllegalStateException("Row " + r + " is full (" + capacities[r] + " entries)");
+        }
+        int[] entries = new int[size];
+        for (int i = 0; i < size; ++i) {
+            entries[i] = (counts[i] << shift) + topics[i];
+        }
+        Arrays.sort(entries);
+        IntBuffer buffer = views[chunkOfRow[r]];
+        buffer.put(offsetOfRow[r], size);
+        for (int i = 0; i < size; ++i) {
+            buffer.put(offsetOfRow[r] + 1 + i, entries[i]);
+        }
+    }
+
+    public double weightedSum(int w, double[] coefficients) {
+        IntBuffer buffer = views[chunkOfRow[w]];
+        int start = offsetOfRow[w] + 1;
+        int end = start + buffer.get(start - 1);
+        double sum = 0d;
+        for (int i = start; i < end; ++i) {
+            int entry = buffer.get(i);
+            sum += coefficients[entry & mask] * (entry >> shift);
+        }
+        return sum;
+    }
+
+    public int row(int w, int[] topics, int[] counts) {
+        IntBuffer buffer = views[chunkOfRow[w]];
+        int start = offsetOfRow[w] + 1;
+        int size = buffer.get(start - 1);
+        for (int i = 0; i < size; ++i) {
+            int entry = buffer.get(start + i);
+            topics[i] = entry & mask;
+            counts[i] = entry >> shift;
+        }
+        return size;
+    }
+
+    public void accumulate(int w, double[] coefficients, double[] target) {
+        IntBuffer buffer = views[chunkOfRow[w]];
+        int start = offsetOfRow[w] + 1;
+        int end = start + buffer.get(start - 1);
+        for (int i = start; i < end; ++i) {
+            int entry = buffer.get(i);
+            int t = entry & mask;
+            target[t] += coefficients[t] * (entry >> shift);
+        }
+    }
+
+    public int sample(int w, double[] coefficients, double u) {
+        IntBuffer buffer = views[chunkOfRow[w]];
+        int start = offsetOfRow[w] + 1;
+        int end = start + buffer.get(start - 1);
+        assert end > start;
+        int topic = 0;
+        double sum = 0d;
+        for (int i = end - 1; i >= start; --i) {
+            int entry = buffer.get(i);
+            topic = entry & mask;
+            sum += coefficients[topic] * (entry >> shift);
+            if (sum > u) {
+                break;
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * Copies the matrix into a new one with larger rows, and releases this one
+     *
+     * @param capacities - new maximal number of entries in each row, no less than the current ones
+     */
+    OffHeapSparseMatrix resize(int[] capacities) {
+        OffHeapSparseMatrix matrix = new OffHeapSparseMatrix(capacities, mask + 1);
+        for (int r = 0; r < this.capacities.length; ++r) {
+            IntBuffer from = views[chunkOfRow[r]];
+            IntBuffer to = matrix.views[matrix.chunkOfRow[r]];
+            int length = from.get(offsetOfRow[r]);
+            for (int i = 0; i <= length; ++i) {
+                to.put(matrix.offsetOfRow[r] + i, from.get(offsetOfRow[r] + i));
+            }
+        }
+        close();
+        return matrix;
+    }
+
+    /**
+     * Releases off-heap memory
+     */
+    public void close() {
+        if (chunks != null) {
+            for (ByteBuffer chunk : chunks) {
+                DirectBuffers.release(chunk);
+            }
+            chunks = null;
+            views = null;
+        }
+    }
+}
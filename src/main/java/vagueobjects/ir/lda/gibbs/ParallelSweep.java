@@ -0,0 +1,409 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sweeps over a range of documents on a fork-join pool. Work is split by number of tokens rather than by number
+ * of documents: documents longer than the grain are cut into sub-ranges, and a range of work is halved into
+ * parts with about the same number of tokens until it fits the grain, so that idle threads steal halves
+ * from busy ones.
+ * <p/>
+ * As in approximate distributed LDA, each thread samples against its own copy of word-topic counts and topic
+ * totals; rows are copied from the shared counts the first time the thread needs them in a sweep, and
+ * changes of all threads are merged into the shared counts once the sweep is over. Sub-ranges of the same
+ * document sample against a copy of its document-topic counts and merge their changes as soon as they are done.
+ * Document-topic counts must therefore be kept on the heap.
+ */
+class ParallelSweep {
+    /**
+     * Least number of tokens sampled by a task
+     */
+    static final int MIN_GRAIN = 512;
+    /**
+     * Number of tasks per thread a sweep is split into, leaving room for stealing
+     */
+    private static final int TASKS_PER_THREAD = 8;
+    private static final int NUMBER_OF_LOCKS = 64;
+
+    private final int numberOfTopics;
+    /**
+     * Document-topic prior of each topic
+     */
+    private double[] alpha;
+    private double beta;
+    private final int vocabularySize;
+    private final WordTopicCounts nw;
+    private final int[] nwSum;
+    private final boolean wide;
+    private final int[][] tokensInDocuments;
+    private final int[][] z;
+    private final DocTopicCounts nd;
+    private final int grain;
+    /**
+     * Units of work: a document, or a sub-range of a long document
+     */
+    private final int[] unitDoc;
+    private final int[] unitFrom;
+    private final int[] unitTo;
+    /**
+     * Number of tokens up to the end of each unit
+     */
+    private final long[] unitEnd;
+    private final Object[] locks;
+    private final ForkJoinPool pool;
+    private final Random random;
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private final ThreadLocal<Worker> worker = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            Worker worker = new Worker(random.nextLong());
+            synchronized (workers) {
+                workers.add(worker);
+            }
+            return worker;
+        }
+    };
+    private int epoch;
+    private long sweepNanos;
+
+    /**
+     * @param from            - index of the first document to sample
+     * @param to              - index after the last document to sample
+     * @param numberOfThreads - number of threads of the pool
+     * @param grain           - number of tokens a task samples without splitting further
+     * @param wide            - whether counts of a token may not fit packed entries of <code>SparseMatrix</code>
+     * @param random          - source of seeds for the threads
+     */
+    ParallelSweep(int numberOfTopics, double[] alpha, double beta, int vocabularySize, WordTopicCounts nw,
+                  int[] nwSum, int[][] tokensInDocuments, int[][] z, DocTopicCounts nd, int from, int to,
+                  int numberOfThreads, int grain, boolean wide, Random random) {
+        this.numberOfTopics = numberOfTopics;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.vocabularySize = vocabularySize;
+        this.nw = nw;
+        this.nwSum = nwSum;
+        this.tokensInDocuments = tokensInDocuments;
+        this.z = z;
+        this.nd = nd;
+        this.grain = grain;
+        this.wide = wide;
+        this.random = random;
+
+        int numUnits = 0;
+        for (int d = from; d < to; ++d) {
+            numUnits += pieces(z[d].length);
+        }
+        unitDoc = new int[numUnits];
+        unitFrom = new int[numUnits];
+        unitTo = new int[numUnits];
+        unitEnd = new long[numUnits];
+        int u = 0;
+        long end = 0;
+        for (int d = from; d < to; ++d) {
+            int length = z[d].length;
+            int pieces = pieces(length);
+            for (int p = 0; p < pieces; ++p) {
+                unitDoc[u] = d;
+                unitFrom[u] = (int) ((long) length * p / pieces);
+                unitTo[u] = (int) ((long) length * (p + 1) / pieces);
+                end += unitTo[u] - unitFrom[u];
+                unitEnd[u++] = end;
+            }
+        }
+        locks = new Object[NUMBER_OF_LOCKS];
+        for (int i = 0; i < locks.length; ++i) {
+            locks[i] = new Object();
+        }
+        pool = new ForkJoinPool(numberOfThreads);
+    }
+
+    /**
+     * @return number of tokens per task that gives each thread a few tasks to start with
+     */
+    static int grain(long numberOfTokens, int numberOfThreads) {
+        return (int) Math.max(MIN_GRAIN, numberOfTokens / ((long) numberOfThreads * TASKS_PER_THREAD));
+    }
+
+    private int pieces(int length) {
+        return (length + grain - 1) / grain;
+    }
+
+    int getNumberOfUnits() {
+        return unitDoc.length;
+    }
+
+    /**
+     * Replaces the priors, which take effect in the next sweep
+     *
+     * @param alpha - document-topic prior of each topic
+     * @param beta  - topic-word prior
+     */
+    void setPriors(double[] alpha, double beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * Re-samples topic assignments of all tokens in the range, then merges changes of all threads
+     * into the shared counts
+     */
+    void sweep() {
+        epoch++;
+        long start = System.nanoTime();
+        if (unitDoc.length > 0) {
+            pool.invoke(new SweepTask(0, unitDoc.length));
+        }
+        sweepNanos += System.nanoTime() - start;
+        synchronized (workers) {
+            for (Worker w : workers) {
+                w.merge();
+            }
+        }
+    }
+
+    /**
+     * @return share of the time spent sampling by each thread, along with the tokens it sampled
+     */
+    String describeUtilisation() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (workers) {
+            for (int i = 0; i < workers.size(); ++i) {
+                Worker w = workers.get(i);
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(String.format(Locale.ROOT, "#%d: %.1f%% (%d tokens)", i,
+                        100d * w.busyNanos / Math.max(1, sweepNanos), w.sampled));
+            }
+        }
+        return sb.toString();
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    private long startOf(int u) {
+        return u == 0 ? 0 : unitEnd[u - 1];
+    }
+
+    @SuppressWarnings("serial")
+    private class SweepTask extends RecursiveAction {
+        private final int lo;
+        private final int hi;
+
+        SweepTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1 && unitEnd[hi - 1] - startOf(lo) > grain) {
+                long middle = (startOf(lo) + unitEnd[hi - 1]) / 2;
+                int m = Arrays.binarySearch(unitEnd, lo, hi, middle);
+                if (m < 0) {
+                    m = -m - 1;
+                }
+                m = Math.max(lo + 1, Math.min(hi - 1, m + 1));
+                invokeAll(new SweepTask(lo, m), new SweepTask(m, hi));
+            } else {
+                Worker w = worker.get();
+                long start = System.nanoTime();
+                for (int u = lo; u < hi; ++u) {
+                    w.sample(u);
+                }
+                w.busyNanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * State of a thread: its copy of the counts, serving as word-topic counts of its kernel, and the log
+     * of the topic changes it made during the current sweep
+     */
+    private class Worker implements WordTopicCounts {
+        private final Random random;
+        private final int[] localSum;
+        private final WordTopicCounts local;
+        /**
+         * Sweep in which a row was last copied
+         */
+        private final int[] loaded;
+        private final SparseSweep sweep;
+        private final double[] ones;
+        private final double[] dense;
+        private final int[] topics;
+        private final int[] counts;
+        private final int[] buffer;
+        private final int[] row;
+        private final int[] previous;
+        private int[] changes = new int[1024];
+        private int numChanges;
+        private int epoch;
+        private long busyNanos;
+        private long sampled;
+
+        Worker(long seed) {
+            this.random = new Random(seed);
+            this.localSum = new int[numberOfTopics];
+            this.local = wide ? new WideSparseMatrix(vocabularySize, numberOfTopics)
+                    : new SparseMatrix(vocabularySize, numberOfTopics);
+            this.loaded = new int[vocabularySize];
+            this.sweep = new SparseSweep(numberOfTopics, alpha, beta, vocabularySize, this, localSum);
+            this.ones = new double[numberOfTopics];
+            Arrays.fill(ones, 1d);
+            this.dense = new double[numberOfTopics];
+            this.topics = new int[numberOfTopics];
+            this.counts = new int[numberOfTopics];
+            this.buffer = new int[numberOfTopics];
+            this.row = new int[numberOfTopics];
+            this.previous = new int[grain];
+        }
+
+        void sample(int u) {
+            if (epoch != ParallelSweep.this.epoch) {
+                epoch = ParallelSweep.this.epoch;
+                System.arraycopy(nwSum, 0, localSum, 0, numberOfTopics);
+                sweep.setPriors(alpha, beta);
+                sweep.begin();
+                numChanges = 0;
+            }
+            int d = unitDoc[u];
+            int from = unitFrom[u];
+            int to = unitTo[u];
+            int[] tokens = tokensInDocuments[d];
+            int[] zd = z[d];
+            System.arraycopy(zd, from, previous, 0, to - from);
+            if (to - from == zd.length) {
+                int[] ndRow = nd.row(d, buffer);
+                sweep.sample(tokens, zd, ndRow, random);
+                nd.store(d, ndRow);
+            } else {
+                Object lock = locks[d % locks.length];
+                synchronized (lock) {
+                    System.arraycopy(nd.row(d, buffer), 0, row, 0, numberOfTopics);
+                }
+                sweep.sample(tokens, zd, row, from, to, random);
+                synchronized (lock) {
+                    int[] ndRow = nd.row(d, buffer);
+                    for (int i = from; i < to; ++i) {
+                        ndRow[previous[i - from]]--;
+                        ndRow[zd[i]]++;
+                    }
+                    nd.store(d, ndRow);
+                }
+            }
+            for (int i = from; i < to; ++i) {
+                if (zd[i] != previous[i - from]) {
+                    if (numChanges + 3 > changes.length) {
+                        changes = Arrays.copyOf(changes, 2 * changes.length);
+                    }
+                    changes[numChanges++] = tokens[i];
+                    changes[numChanges++] = previous[i - from];
+                    changes[numChanges++] = zd[i];
+                }
+            }
+            sampled += to - from;
+        }
+
+        /**
+         * Applies changes of the sweep to the shared counts
+         */
+        void merge() {
+            if (epoch != ParallelSweep.this.epoch) {
+                return;
+            }
+            for (int i = 0; i < numChanges; i += 3) {
+                nw.decrement(changes[i], changes[i + 1]);
+                nw.increment(changes[i], changes[i + 2]);
+                nwSum[changes[i + 1]]--;
+                nwSum[changes[i + 2]]++;
+            }
+            numChanges = 0;
+        }
+
+        /**
+         * Copies a row of the shared counts, unless already done in this sweep
+         */
+        private void load(int w) {
+            if (loaded[w] != epoch) {
+                Arrays.fill(dense, 0d);
+                nw.accumulate(w, ones, dense);
+                int size = 0;
+                for (int t = 0; t < numberOfTopics; ++t) {
+                    if (dense[t] > 0) {
+                        topics[size] = t;
+                        counts[size++] = (int) dense[t];
+                    }
+                }
+                local.setRow(w, topics, counts, size);
+                loaded[w] = epoch;
+            }
+        }
+
+        public int get(int w, int t) {
+            load(w);
+            return local.get(w, t);
+        }
+
+        public void increment(int w, int t) {
+            load(w);
+            local.increment(w, t);
+        }
+
+        public void decrement(int w, int t) {
+            load(w);
+            local.decrement(w, t);
+        }
+
+        public void setRow(int w, int[] topics, int[] counts, int size) {
+            local.setRow(w, topics, counts, size);
+            loaded[w] = epoch;
+        }
+
+        public int row(int w, int[] topics, int[] counts) {
+            load(w);
+            return local.row(w, topics, counts);
+        }
+
+        public double weightedSum(int w, double[] coefficients) {
+            load(w);
+            return local.weightedSum(w, coefficients);
+        }
+
+        public void accumulate(int w, double[] coefficients, double[] target) {
+            load(w);
+            local.accumulate(w, coefficients, target);
+        }
+
+        public int sample(int w, double[] coefficients, double u) {
+            load(w);
+            return local.sample(w, coefficients, u);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Holds the global word-topic counts for distributed training. Each {@link DistributedWorker} owns
+ * a shard of documents; it pushes changes of its topic assignments to the server and pulls the global
+ * counts back. Workers may run ahead of the slowest worker by at most <code>staleness</code> iterations:
+ * a pull blocks until this condition holds. A pull sends only the rows of counts that changed since the
+ * previous pull of the same worker.
+ * <p/>
+ * The server accepts one connection per worker, and stops once all workers are done.
+ */
+public class ParameterServer {
+    private static Logger logger = Logger.getLogger(ParameterServer.class);
+    static final int HELLO = 1;
+    static final int PUSH = 2;
+    static final int PULL = 3;
+    static final int DONE = 4;
+    private static final int FINISHED = Integer.MAX_VALUE;
+
+    private final int numberOfTopics;
+    private final int vocabularySize;
+    private final int numberOfWorkers;
+    private final int staleness;
+    private final double beta;
+    private WordTopicCounts nw;
+    private final int[] nwSum;
+    /**
+     * Number of instances of each token assigned to any topic, bounds the counts of its row
+     */
+    private final int[] frequencies;
+    /**
+     * For each worker, tokens whose rows changed since the worker's latest pull
+     */
+    private final BitSet[] changed;
+    /**
+     * Number of iterations completed by each worker, -1 until the worker pushes its initial state
+     */
+    private final int[] clocks;
+    private ServerSocket serverSocket;
+
+    /**
+     * @param numberOfTopics  - number of topics to extract
+     * @param vocabularySize  - size of vocabulary used
+     * @param numberOfWorkers - number of workers expected to connect
+     * @param staleness       - maximal number of iterations a worker may be ahead of the slowest worker
+     */
+    public ParameterServer(int numberOfTopics, int vocabularySize, int numberOfWorkers, int staleness) {
+        this(numberOfTopics, vocabularySize, numberOfWorkers, staleness, 0.01);
+    }
+
+    /**
+     * @param numberOfTopics  - number of topics to extract
+     * @param vocabularySize  - size of vocabulary used
+     * @param numberOfWorkers - number of workers expected to connect
+     * @param staleness       - maximal number of iterations a worker may be ahead of the slowest worker
+     * @param beta            - topic-word prior, as used by the workers
+     */
+    public ParameterServer(int numberOfTopics, int vocabularySize, int numberOfWorkers, int staleness, double beta) {
+        this.numberOfTopics = numberOfTopics;
+        this.vocabularySize = vocabularySize;
+        this.numberOfWorkers = numberOfWorkers;
+        this.staleness = staleness;
+        this.beta = beta;
+        this.nw = new SparseMatrix(vocabularySize, numberOfTopics);
+        this.nwSum = new int[numberOfTopics];
+        this.frequencies = new int[vocabularySize];
+        this.changed = new BitSet[numberOfWorkers];
+        this.clocks = new int[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; ++i) {
+            changed[i] = new BitSet(vocabularySize);
+            clocks[i] = -1;
+        }
+    }
+
+    /**
+     * Starts accepting worker connections in background
+     *
+     * @param port - port to listen at, or 0 to use any free port
+     * @return port the server listens at
+     */
+    public int start(int port) throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < numberOfWorkers; ++i) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "parameter-server-worker");
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        logger.error("Could not accept worker connection", e);
+                        return;
+                    }
+                }
+            }
+        }, "parameter-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Parameter server listening at port " + serverSocket.getLocalPort());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Blocks until all workers are done
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (minClock() != FINISHED) {
+            wait();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.warn("Could not close server socket", e);
+        }
+    }
+
+    /**
+     * @return topic-token associations estimated from the global counts
+     */
+    public synchronized double[][] getPhi() {
+        double nBeta = vocabularySize * beta;
+        double[] inverse = new double[numberOfTopics];
+        for (int t = 0; t < numberOfTopics; t++) {
+            inverse[t] = 1d / (nwSum[t] + nBeta);
+        }
+        double[][] phi = new double[numberOfTopics][vocabularySize];
+        double[] column = new double[numberOfTopics];
+        for (int w = 0; w < vocabularySize; w++) {
+            for (int t = 0; t < numberOfTopics; t++) {
+                column[t] = beta * inverse[t];
+            }
+            nw.accumulate(w, inverse, column);
+            for (int t = 0; t < numberOfTopics; t++) {
+                phi[t][w] = column[t];
+            }
+        }
+        return phi;
+    }
+
+    /**
+     * @return total number of tokens assigned to topics
+     */
+    public synchronized long getNumberOfTokens() {
+        long count = 0;
+        for (int n : nwSum) {
+            count += n;
+        }
+        return count;
+    }
+
+    private void serve(Socket socket) {
+        int workerId = -1;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int op = in.readInt();
+                if (op == HELLO) {
+                    workerId = in.readInt();
+                    if (workerId < 0 || workerId >= numberOfWorkers) {
+                        throw new IOException("Unexpected worker id " + workerId);
+                    }
+                    logger.debug("Worker " + workerId + " connected");
+                } else if (op == PUSH) {
+                    int clock = in.readInt();
+                    int n = in.readInt();
+                    int[] deltas = new int[3 * n];
+                    for (int i = 0; i < deltas.length; ++i) {
+                        deltas[i] = in.readInt();
+                    }
+                    push(workerId, clock, deltas);
+                } else if (op == PULL) {
+                    int clock = in.readInt();
+                    pull(workerId, clock, out);
+                    out.flush();
+                } else if (op == DONE) {
+                    long tokens = in.readLong();
+                    long samplingNanos = in.readLong();
+                    long syncNanos = in.readLong();
+                    logger.info("Worker " + workerId + " done: " + DistributedWorker.describe(tokens, samplingNanos, syncNanos));
+                    finish(workerId);
+                    break;
+                } else {
+                    throw new IOException("Unexpected message " + op);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Connection to worker " + workerId + " failed", e);
+            if (workerId >= 0) {
+                finish(workerId);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.warn("Could not close socket", e);
+            }
+        }
+    }
+
+    private synchronized void push(int workerId, int clock, int[] deltas) {
+        for (int i = 0; i < deltas.length; i += 3) {
+            int w = deltas[i];
+            int t = deltas[i + 1];
+            if (deltas[i + 2] > 0) {
+                if (nw instanceof SparseMatrix && !SparseMatrix.fits(frequencies[w] + 1, numberOfTopics)) {
+                    logger.info("Counts do not fit packed rows, switching to wide rows");
+                    nw = WideSparseMatrix.of((SparseMatrix) nw);
+                }
+                nw.increment(w, t);
+                nwSum[t]++;
+                frequencies[w]++;
+            } else {
+                nw.decrement(w, t);
+                nwSum[t]--;
+                frequencies[w]--;
+            }
+            for (BitSet rows : changed) {
+                rows.set(w);
+            }
+        }
+        clocks[workerId] = clock;
+        notifyAll();
+    }
+
+    /**
+     * Sends a snapshot of the global counts that changed since the worker's latest pull, once the slowest
+     * worker is close enough to the given clock
+     */
+    private void pull(int workerId, int clock, DataOutputStream out) throws IOException, InterruptedException {
+        int[] _nwSum;
+        int[] words;
+        int[][] topics;
+        int[][] counts;
+        synchronized (this) {
+            while (minClock() < clock - staleness) {
+                wait();
+            }
+            _nwSum = nwSum.clone();
+            BitSet rows = changed[workerId];
+            words = new int[rows.cardinality()];
+            topics = new int[words.length][];
+            counts = new int[words.length][];
+            int[] rowTopics = new int[numberOfTopics];
+            int[] rowCounts = new int[numberOfTopics];
+            int i = 0;
+            for (int w = rows.nextSetBit(0); w >= 0; w = rows.nextSetBit(w + 1)) {
+                int size = nw.row(w, rowTopics, rowCounts);
+                words[i] = w;
+                topics[i] = Arrays.copyOf(rowTopics, size);
+                counts[i++] = Arrays.copyOf(rowCounts, size);
+            }
+            rows.clear();
+        }
+        for (int t = 0; t < numberOfTopics; t++) {
+            out.writeInt(_nwSum[t]);
+        }
+        out.writeInt(words.length);
+        for (int i = 0; i < words.length; ++i) {
+            out.writeInt(words[i]);
+            out.writeInt(topics[i].length);
+            for (int j = 0; j < topics[i].length; ++j) {
+                out.writeInt(topics[i][j]);
+                out.writeInt(counts[i][j]);
+            }
+        }
+    }
+
+    private synchronized void finish(int workerId) {
+        clocks[workerId] = FINISHED;
+        notifyAll();
+    }
+
+    private int minClock() {
+        int min = FINISHED;
+        for (int clock : clocks) {
+            min = Math.min(min, clock);
+        }
+        return min;
+    }
+}
@@ -92,44 +92,42 @@ public class PartialSampler {
         }
         logger.debug("Initialization complete. Entering main loop.");
         //double nBeta = numberOfTokens*beta;
+        double[] p = new double[numberOfTopics];
+        double[] priors = SparseSweep.symmetric(numberOfTopics, alpha);
+        //rows of phi per token, so that topics of a token are contiguous
+        double[][] phiOfToken = new double[phi[0].length][];
         for (int step = 0; step < numberOfIterations; ++step) {
             for (int d = 0; d < z.length; d++) {
                 for (int w = 0; w < z[d].length; w++) {
                     int topic = z[d][w];  //current topic assignment
                     int wid = tokensInDocuments[d][w];
                     nd[d][topic]--;
-                    double[] p = new double[numberOfTopics];
-                    for (int t = 0; t < numberOfTopics; t++) {
-                        p[t] = phi[t][wid] * (nd[d][t] + alpha);
-                    }
-                    // accumulate multinomial parameters
-                    for (int k = 1; k < p.length; k++) {
-                        p[k] += p[k - 1];
+                    double[] phiRow = phiOfToken[wid];
+                    if (phiRow == null) {
+                        phiRow = new double[numberOfTopics];
+                        for (int t = 0; t < numberOfTopics; t++) {
+                            phiRow[t] = phi[t][wid];
+                        }
+                        phiOfToken[wid] = phiRow;
                     }
+                    double sum = DenseKernels.weights(phiRow, nd[d], alpha, p, numberOfTopics);
                     // scaled sample because of un-normalised p[]
-                    double u = random.nextDouble() * p[numberOfTopics - 1];
-                    for (topic = 0; topic < p.length; topic++) {
-                        if (u < p[topic])
-                            break;
-                    }
+                    topic = DenseKernels.sample(p, random.nextDouble() * sum, numberOfTopics);
                     nd[d][topic]++;
                     z[d][w] = topic;
                 }
             }
 
             for (int d = 0; d < tokensInDocuments.length; d++) {
-                for (int t = 0; t < numberOfTopics; t++) {
-                    thetaSum[d][t] += (nd[d][t] + alpha) / (ndSum[d] + numberOfTopics * alpha);
-                }
+                DenseKernels.addSmoothed(nd[d], priors, 1d / (ndSum[d] + numberOfTopics * alpha), thetaSum[d],
+                        numberOfTopics);
             }
         }
 
         logger.info("Simulation complete");
         double[][] theta  = new double[tokensInDocuments.length][numberOfTopics];
         for (int d = 0; d < tokensInDocuments.length; d++) {
-            for (int k = 0; k < numberOfTopics; k++) {
-                theta[d][k] = thetaSum[d][k] / numberOfIterations ;
-            }
+            DenseKernels.scale(thetaSum[d], 1d / numberOfIterations, theta[d], numberOfTopics);
         }
 
         return theta;
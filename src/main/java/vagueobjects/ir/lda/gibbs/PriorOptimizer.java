@@ -0,0 +1,96 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.commons.math.special.Gamma;
+
+/**
+ * Maximum likelihood estimates of Dirichlet priors from current counts, using Minka's fixed-point iteration
+ * with the histogram-based evaluation of digamma differences of Wallach: since
+ * <code>digamma(n + a) - digamma(a)</code> is the sum of <code>1 / (a + i)</code> for <code>i &lt; n</code>,
+ * counts are only visited through histograms of their values.
+ */
+class PriorOptimizer {
+    /**
+     * Number of fixed-point iterations per estimate
+     */
+    static final int ITERATIONS = 20;
+    /**
+     * Least value of a prior, which keeps the iteration away from zero
+     */
+    static final double MIN_PRIOR = 1e-5;
+
+    /**
+     * Re-estimates an asymmetric document-topic prior
+     *
+     * @param alpha               - current prior of each topic, replaced by the estimate
+     * @param docLengthHistogram  - number of documents of each length
+     * @param topicCountHistogram - for each topic, number of documents with each number of tokens assigned to it
+     */
+    static void optimizeAlpha(double[] alpha, int[] docLengthHistogram, int[][] topicCountHistogram) {
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            double alphaSum = 0d;
+            for (double a : alpha) {
+                alphaSum += a;
+            }
+            double denominator = 0d;
+            double diff = 0d;
+            for (int n = 1; n < docLengthHistogram.length; ++n) {
+                diff += 1d / (alphaSum + n - 1);
+                denominator += docLengthHistogram[n] * diff;
+            }
+            for (int t = 0; t < alpha.length; ++t) {
+                double numerator = 0d;
+                diff = 0d;
+                int[] histogram = topicCountHistogram[t];
+                for (int n = 1; n < histogram.length; ++n) {
+                    diff += 1d / (alpha[t] + n - 1);
+                    numerator += histogram[n] * diff;
+                }
+                alpha[t] = Math.max(MIN_PRIOR, alpha[t] * numerator / denominator);
+            }
+        }
+    }
+
+    /**
+     * Re-estimates a symmetric topic-word prior
+     *
+     * @param beta           - current prior
+     * @param vocabularySize - size of vocabulary
+     * @param countHistogram - number of (token, topic) pairs with each count
+     * @param nwSum          - number of tokens assigned to each topic
+     * @return the estimate
+     */
+    static double optimizeBeta(double beta, int vocabularySize, int[] countHistogram, int[] nwSum) {
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            double numerator = 0d;
+            double diff = 0d;
+            for (int n = 1; n < countHistogram.length; ++n) {
+                diff += 1d / (beta + n - 1);
+                numerator += countHistogram[n] * diff;
+            }
+            double nBeta = vocabularySize * beta;
+            double denominator = 0d;
+            for (int total : nwSum) {
+                denominator += Gamma.digamma(total + nBeta) - Gamma.digamma(nBeta);
+            }
+            beta = Math.max(MIN_PRIOR, beta * numerator / (vocabularySize * denominator));
+        }
+        return beta;
+    }
+}
@@ -17,6 +17,7 @@ package vagueobjects.ir.lda.gibbs;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+import vagueobjects.ir.lda.tokens.TopK;
 import vagueobjects.ir.lda.tokens.Words;
 
 import java.text.DecimalFormat;
@@ -26,28 +27,32 @@ import java.util.*;
 public class Result {
     public static DecimalFormat format = new DecimalFormat("#.###");
     public static final int MAX_NUM_TOKENS = 10;
+    /**
+     * Number of topic-token associations from which the selection of top tokens is spread over threads
+     */
+    static final long PARALLEL_SELECTION_SIZE = 1L << 22;
     private final Tuple[][] topicMap;
 
     public Result(SparseGibbsSampler sampler, Words vocabulary) {
-        double[][] phi = sampler.getPhi();
+        this(sampler.getPhi(), vocabulary);
+    }
 
-        int vocabularySize = vocabulary.size();
+    /**
+     * @param phi        - topic-token associations, as produced by any of the samplers
+     * @param vocabulary - vocabulary used to encode documents
+     */
+    public Result(double[][] phi, Words vocabulary) {
         int K = phi.length;
         topicMap = new Tuple[K][];
+        long size = K == 0 ? 0 : (long) K * phi[0].length;
+        int numberOfThreads = size < PARALLEL_SELECTION_SIZE ? 1 : Runtime.getRuntime().availableProcessors();
+        int[][] best = TopK.select(phi, MAX_NUM_TOKENS, numberOfThreads);
 
         for (int topic = 0; topic < K; ++topic) {
-            Set<Tuple> tuples = new TreeSet<Tuple>();
-
-            for (int token = 0; token < vocabularySize; token++) {
-                String word = vocabulary.getToken(token);
-                tuples.add(new Tuple<String>(word, phi[topic][token]));
-            }
-
-            int bound = Math.min(MAX_NUM_TOKENS, tuples.size());
-            topicMap[topic] = new Tuple[bound];
-            Iterator<Tuple> itr = tuples.iterator();
-            for (int i = 0; i < bound; ++i) {
-                topicMap[topic][i] = itr.next();
+            topicMap[topic] = new Tuple[best[topic].length];
+            for (int i = 0; i < best[topic].length; ++i) {
+                int token = best[topic][i];
+                topicMap[topic][i] = new Tuple<String>(vocabulary.getToken(token), phi[topic][token]);
             }
         }
     }
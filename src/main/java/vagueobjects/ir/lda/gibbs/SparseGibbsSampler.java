@@ -19,27 +19,33 @@ package vagueobjects.ir.lda.gibbs;
  */
 import org.apache.log4j.Logger;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
  * The  implementation of the Gibbs Sampler that follows
  * <a href="http://www.cs.umass.edu/~mimno/papers/fast-topic-model.pdf">this algorithm</a>.
  * This class also provides in-sample perplexity estimates to control convergence.
+ * <p/>
+ * The sampler keeps its state after the simulation so that training may be continued with
+ * {@link #update}; if off-heap storage is used, this state must be released with {@link #close()}.
  */
-public class SparseGibbsSampler  {
+public class SparseGibbsSampler implements Closeable {
     private static Logger logger = Logger.getLogger(SparseGibbsSampler.class);
     private final int numberOfIterations;
     private final int burnIn;
     private final int sampleLag;
     private double perplexityThreshold;
     /**
-     * Document-topic association
+     * Document-topic association, per topic
      */
-    private final double alpha;
+    private double[] alpha;
     /**
      * Topic-term association
      */
-    private final double beta;
+    private double beta;
     private final int numberOfTopics;
     //Simulation results
     /**
@@ -54,6 +60,47 @@ public class SparseGibbsSampler  {
      * Current value of in-sample perplexity
      */
     private double perplexity;
+    //Sampler state, kept so that training can be continued
+    private int[][] tokensInDocuments;
+    private int vocabularySize;
+    /**
+     * Topic assignment per token
+     */
+    private int[][] z;
+    /**
+     * Number of tokens in document assigned to topic
+     */
+    private DocTopicCounts nd;
+    private int[] ndSum;
+    /**
+     * Number of instances of token assigned to topic
+     */
+    private WordTopicCounts nw;
+    private int[] nwSum;
+    /**
+     * Number of occurrences of each token
+     */
+    private int[] frequencies;
+    /**
+     * Whether counts are kept outside of the heap
+     */
+    private boolean offHeap;
+    /**
+     * Whether rows of word-topic counts spread over many topics are kept dense
+     */
+    private boolean hybrid;
+    /**
+     * Whether sweeps visit tokens grouped by token ID rather than by document
+     */
+    private boolean wordMajor;
+    /**
+     * Number of threads sweeps run on
+     */
+    private int numberOfThreads = 1;
+    /**
+     * Number of sweeps between re-estimates of the priors, 0 if they are fixed
+     */
+    private int optimizationInterval;
 
     public static final double PERPLEXITY_CHANGE_THRESHOLD = 5e-4;
     public static final int DEFAULT_NUMBER_ITERATIONS = 10000;
@@ -72,7 +119,7 @@ public class SparseGibbsSampler  {
         this.burnIn = burnIn;
         this.sampleLag = sampleLag;
         this.numberOfTopics = numberOfTopics;
-        this.alpha = Math.min(1d, 50.0d / numberOfTopics);
+        this.alpha = SparseSweep.symmetric(numberOfTopics, Math.min(1d, 50.0d / numberOfTopics));
         this.beta = 0.01;
         this.perplexityThreshold = PERPLEXITY_CHANGE_THRESHOLD;
     }
@@ -82,7 +129,7 @@ public class SparseGibbsSampler  {
         this.burnIn = DEFAULT_BURN_IN;
         this.sampleLag = DEFAULT_SAMPLE_LAG;
         this.numberOfTopics = numberOfTopics;
-        this.alpha = Math.min(1d, 50.0d / numberOfTopics);
+        this.alpha = SparseSweep.symmetric(numberOfTopics, Math.min(1d, 50.0d / numberOfTopics));
         this.beta = 0.01;
         this.perplexityThreshold = PERPLEXITY_CHANGE_THRESHOLD;
     }
@@ -109,6 +156,70 @@ public class SparseGibbsSampler  {
         return this;
     }
 
+    /**
+     * Keeps word-topic and document-topic counts in direct buffers rather than on the heap, so that
+     * they do not add to garbage collection pauses however large the model is. The memory is
+     * released by {@link #close()}.
+     */
+    public SparseGibbsSampler useOffHeapStorage() {
+        this.offHeap = true;
+        return this;
+    }
+
+    /**
+     * Keeps rows of word-topic counts dense for tokens assigned to many topics (initially, the tokens
+     * at least as frequent as the number of topics), and sparse for the rest. Rows change their form
+     * as the number of topics they are assigned to changes. This speeds up sampling of frequent tokens,
+     * at the cost of memory for dense rows. Off-heap storage, if requested, takes precedence.
+     */
+    public SparseGibbsSampler useHybridRows() {
+        this.hybrid = true;
+        return this;
+    }
+
+    /**
+     * Makes each sweep sample all occurrences of a token together, token after token, rather than
+     * document after document; see {@link WordMajorSweep}. This keeps word-topic counts of the token in cache
+     * and tends to be faster for large vocabularies, at the cost of an inverted index of the corpus.
+     * Sweeps of {@link #update} remain document by document.
+     */
+    public SparseGibbsSampler useWordMajorSweeps() {
+        this.wordMajor = true;
+        return this;
+    }
+
+    /**
+     * Runs sweeps on a fork-join pool of the given number of threads; see {@link ParallelSweep}. Work is
+     * balanced by number of tokens, and long documents are split, so that threads stay busy however
+     * document lengths vary. Utilisation of each thread is logged once the simulation is complete.
+     * Parallel sweeps support neither off-heap storage nor word-major sweeps.
+     *
+     * @param numberOfThreads - number of threads to use
+     */
+    public SparseGibbsSampler useParallelSweeps(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads: " + numberOfThreads);
+        }
+        this.numberOfThreads = numberOfThreads;
+        return this;
+    }
+
+    /**
+     * Re-estimates the priors from the current sample every given number of sweeps: an asymmetric
+     * document-topic prior, with a value per topic, and a symmetric topic-word prior. Estimates are
+     * maximum likelihood ones, obtained with Minka's fixed-point iteration; see {@link PriorOptimizer}.
+     * Tuned priors usually reach a given perplexity in fewer iterations than the default ones.
+     *
+     * @param optimizationInterval - number of sweeps between re-estimates
+     */
+    public SparseGibbsSampler useHyperparameterOptimization(int optimizationInterval) {
+        if (optimizationInterval < 1) {
+            throw new IllegalArgumentException("Invalid optimization interval: " + optimizationInterval);
+        }
+        this.optimizationInterval = optimizationInterval;
+        return this;
+    }
+
     /**
      * Runs the sampling
      *
@@ -130,18 +241,60 @@ public class SparseGibbsSampler  {
      * @param random            - an instance of the <code>Random</code> class used for simulation
      */
     public void execute(int[][] tokensInDocuments, int vocabularySize, Random random) {
+        if (numberOfThreads > 1 && (offHeap || wordMajor)) {
+            throw new UnsupportedOperationException("Parallel sweeps support neither off-heap storage"
+                    + " nor word-major sweeps");
+        }
         logger.debug("Initializing the sampler, using " + tokensInDocuments.length + " documents ");
-        double[][] thetaSum = new double[tokensInDocuments.length][numberOfTopics];
+        this.tokensInDocuments = tokensInDocuments;
+        this.vocabularySize = vocabularySize;
+        int numDocs = tokensInDocuments.length;
+        double[][] thetaSum = new double[numDocs][numberOfTopics];
         double[][] phiSum = new double[numberOfTopics][vocabularySize];
         //Total number of tokens assigned to topic
-        int[] nwSum = new int[numberOfTopics];
+        nwSum = new int[numberOfTopics];
         //Initially, randomly assign tokens to topics
-        int numDocs = tokensInDocuments.length;
-        int[] ndSum = new int[numDocs];
-        SparseMatrix nw = new SparseMatrix(vocabularySize, numberOfTopics);
-        int[][] nd = new int[numDocs][numberOfTopics];
+        ndSum = new int[numDocs];
+        frequencies = new int[vocabularySize];
+        for (int[] tokens : tokensInDocuments) {
+            for (int wid : tokens) {
+                frequencies[wid]++;
+            }
+        }
+        close();
+        boolean wide = !SparseMatrix.fits(maxFrequency(), numberOfTopics);
+        if (offHeap) {
+            if (wide) {
+                throw new UnsupportedOperationException("Off-heap storage does not support token frequency "
+                        + maxFrequency() + " with " + numberOfTopics + " topics");
+            }
+            nw = new OffHeapSparseMatrix(capacities(), numberOfTopics);
+            nd = new OffHeapDocTopicCounts(numDocs, numberOfTopics);
+        } else if (hybrid) {
+            HybridSparseMatrix matrix = new HybridSparseMatrix(vocabularySize, numberOfTopics,
+                    Math.max(4, numberOfTopics / 8));
+            int numDense = 0;
+            for (int w = 0; w < vocabularySize; ++w) {
+                if (frequencies[w] >= numberOfTopics) {
+                    matrix.toDense(w);
+                    numDense++;
+                }
+            }
+            logger.debug("Using dense rows for " + numDense + " tokens");
+            nw = matrix;
+            nd = new HeapDocTopicCounts(numDocs, numberOfTopics);
+        } else {
+            if (wide) {
+                logger.info("Using wide entries for token frequency " + maxFrequency());
+                nw = new WideSparseMatrix(vocabularySize, numberOfTopics);
+            } else {
+                nw = new SparseMatrix(vocabularySize, numberOfTopics);
+            }
+            nd = new HeapDocTopicCounts(numDocs, numberOfTopics);
+        }
+        int[] buffer = new int[numberOfTopics];
         //Topic assignment per token
-        int[][] z = new int[numDocs][];
+        z = new int[numDocs][];
         // Size of statistics
         int numStats = 1;
 
@@ -152,119 +305,48 @@ public class SparseGibbsSampler  {
             }
             ndSum[d] = nbrTokensInDoc;
             z[d] = new int[nbrTokensInDoc];
+            int[] ndRow = nd.row(d, buffer);
             for (int w = 0; w < nbrTokensInDoc; w++) {
                 int topic = (int) (random.nextDouble() * numberOfTopics);
                 z[d][w] = topic;
                 // number of instances of token w  assigned to the topic
-                nw.add(tokensInDocuments[d][w], topic);
+                nw.increment(tokensInDocuments[d][w], topic);
                 // number of tokens in document w assigned to the topic
-                nd[d][topic]++;
+                ndRow[topic]++;
                 nwSum[topic]++;
             }
+            nd.store(d, ndRow);
+        }
+
+        WordMajorSweep wordMajorSweep = wordMajor ? new WordMajorSweep(numberOfTopics, alpha, beta,
+                vocabularySize, nw, nwSum, tokensInDocuments) : null;
+        long numTokens = 0;
+        for (int d = 0; d < numDocs; ++d) {
+            numTokens += ndSum[d];
         }
-        double nBeta = vocabularySize * beta;
+        ParallelSweep parallelSweep = numberOfThreads > 1 ? newParallelSweep(0, numDocs, random) : null;
+        long sampled = 0;
+        long samplingNanos = 0;
 
         logger.debug("Initialization complete. Entering main loop.");
         for (int step = 0; step < numberOfIterations; ++step) {
-
-            double[] cache = new double[numberOfTopics];
-            for (int t = 0; t < numberOfTopics; ++t) {
-                cache[t] = alpha / (nwSum[t] + nBeta);
-            }
-
-            double s = 0f;
-            for (int t = 0; t < numberOfTopics; t++) {
-                s += cache[t];
+            long start = System.nanoTime();
+            if (wordMajorSweep != null) {
+                wordMajorSweep.sweep(z, nd, random);
+            } else if (parallelSweep != null) {
+                parallelSweep.sweep();
+            } else {
+                sweep(0, numDocs, random);
             }
-            s *= beta;
-
-            for (int d = 0; d < z.length; d++) {
-
-                double r = 0f;
-                for (int t = 0; t < numberOfTopics; t++) {
-                    if (nd[d][t] > 0) {
-                        double x = nd[d][t] / (nwSum[t] + nBeta);
-                        r += x;
-                        cache[t] += x;
-                    }
-                }
-                r *= beta;
-
-                for (int w = 0; w < z[d].length; w++) {
-                    int topic = z[d][w];  //current topic assignment
-                    int wid = tokensInDocuments[d][w];
-                    //update cache
-                    double x = nwSum[topic] + nBeta;
-                    //update s
-
-                    double Y = beta / (x * x - x);
-                    s += Y * alpha;
-                    //update r
-                    r -= Y * (x - nd[d][topic]);
-
-
-                    nw.decrement(wid, topic);
-                    nd[d][topic]--;
-                    nwSum[topic]--;
-                    cache[topic] = (alpha + nd[d][topic]) / (nwSum[topic] + nBeta);
-
-                    double q = 0f;
-                    for (int row : nw.array[wid]) {
-                        int _nw = row >> nw.shift;
-                        int t = row & nw.mask;
-                        q += cache[t] * _nw;
-                    }
-
-                    double u = random.nextDouble() * (q + r + s);
-                    if (u < s) {
-                        double sum = 0;
-                        for (topic = 0; topic < numberOfTopics; topic++) {
-                            sum += beta * alpha / (nwSum[topic] + nBeta);
-                            if (sum > u) {
-                                break;
-                            }
-                        }
-                    } else if (u < s + r) {
-                        double sum = 0;
-                        for (topic = 0; topic < numberOfTopics; topic++) {
-                            if (nd[d][topic] > 0) {
-                                sum += beta * nd[d][topic] / (nwSum[topic] + nBeta);
-                                if (sum + s > u) {
-                                    break;
-                                }
-                            }
-                        }
-                    } else {
-                        int[] row = nw.array[wid];
-                        int l = row.length;
-                        assert l > 0;
-                        double sum = 0d;
-                        for (int i = l - 1; i >= 0; --i) {
-                            int _nw = row[i] >> nw.shift;
-                            topic = row[i] & nw.mask;
-                            assert topic < numberOfTopics;
-                            sum += cache[topic] * _nw;
-                            if (sum + s + r > u) {
-                                break;
-                            }
-                        }
-
-                    }
-
-                    x = nwSum[topic] + nBeta;
-                    double X = beta / (x * x + x);
-                    s -= X * alpha;
-                    r += X * (x - nd[d][topic]);
-                    nw.increment(wid, topic);
-                    nd[d][topic]++;
-                    nwSum[topic]++;
-                    cache[topic] = (alpha + nd[d][topic]) / (nwSum[topic] + nBeta);
-                    z[d][w] = topic;   //new topic assignment
+            samplingNanos += System.nanoTime() - start;
+            sampled += numTokens;
+            if (optimizationInterval > 0 && (step + 1) % optimizationInterval == 0) {
+                optimizePriors();
+                if (wordMajorSweep != null) {
+                    wordMajorSweep.setPriors(alpha, beta);
                 }
-                for (int t = 0; t < numberOfTopics; t++) {
-                    if (nd[d][t] > 0) {
-                        cache[t] -= nd[d][t] / (nwSum[t] + nBeta);
-                    }
+                if (parallelSweep != null) {
+                    parallelSweep.setPriors(alpha, beta);
                 }
             }
 
@@ -282,25 +364,252 @@ public class SparseGibbsSampler  {
                 numStats++;
             }
         }
-        logger.info("Simulation complete ");
+        logger.info("Simulation complete, sampled " + (long) (sampled * 1e9 / Math.max(1, samplingNanos))
+                + " tokens/s" + (wordMajor ? " (word-major)" : ""));
+        if (parallelSweep != null) {
+            parallelSweep.shutdown();
+            logger.info("Thread utilisation " + parallelSweep.describeUtilisation());
+        }
 
     }
 
+    /**
+     * Continues training of an already trained model with new documents. Topic assignments and counts
+     * of the documents seen so far are kept; tokens of new documents are assigned topics drawn from
+     * the current counts rather than uniformly at random, so that only a few sweeps are needed.
+     * Once done, <code>phi</code> and <code>theta</code> are estimated from the latest sample, and
+     * <code>theta</code> covers both old and new documents.
+     *
+     * @param newDocuments     - token IDs of the documents to add; the IDs must be within the vocabulary
+     *                         the model was trained with
+     * @param numberOfSweeps   - number of sweeps to run over the new and recent documents
+     * @param recentDocuments  - number of previously seen (most recent) documents to re-sample along with
+     *                         the new ones
+     * @param random           - an instance of the <code>Random</code> class used for simulation
+     */
+    public void update(int[][] newDocuments, int numberOfSweeps, int recentDocuments, Random random) {
+        if (nw == null) {
+            throw new IllegalStateException("The sampler has not been trained yet");
+        }
+        int oldNumDocs = tokensInDocuments.length;
+        int numDocs = oldNumDocs + newDocuments.length;
+        logger.debug("Adding " + newDocuments.length + " documents to " + oldNumDocs + " already sampled");
+
+        //validate before any state changes, so that the sampler remains usable after a rejected update
+        int[] _frequencies = frequencies.clone();
+        for (int i = 0; i < newDocuments.length; ++i) {
+            int nbrTokensInDoc = newDocuments[i].length;
+            if (nbrTokensInDoc <= 1) {
+                throw new IllegalArgumentException("Too few tokens (" + nbrTokensInDoc + ") in document #"
+                        + (oldNumDocs + i));
+            }
+            for (int wid : newDocuments[i]) {
+                if (wid < 0 || wid >= vocabularySize) {
+                    throw new IllegalArgumentException("Token " + wid + " in document #" + (oldNumDocs + i)
+                            + " is outside of vocabulary");
+                }
+                _frequencies[wid]++;
+            }
+        }
+        int maxFrequency = max(_frequencies);
+        if (nw instanceof OffHeapSparseMatrix && !SparseMatrix.fits(maxFrequency, numberOfTopics)) {
+            throw new UnsupportedOperationException("Off-heap storage does not support token frequency "
+                    + maxFrequency + " with " + numberOfTopics + " topics");
+        }
+
+        int[][] _tokens = new int[numDocs][];
+        System.arraycopy(tokensInDocuments, 0, _tokens, 0, oldNumDocs);
+        System.arraycopy(newDocuments, 0, _tokens, oldNumDocs, newDocuments.length);
+        int[][] _z = new int[numDocs][];
+        System.arraycopy(z, 0, _z, 0, oldNumDocs);
+        int[] _ndSum = new int[numDocs];
+        System.arraycopy(ndSum, 0, _ndSum, 0, oldNumDocs);
+        tokensInDocuments = _tokens;
+        z = _z;
+        ndSum = _ndSum;
+        frequencies = _frequencies;
+        nd.ensureCapacity(numDocs);
+
+        if (nw instanceof OffHeapSparseMatrix) {
+            nw = ((OffHeapSparseMatrix) nw).resize(capacities());
+        } else if (nw instanceof SparseMatrix && !SparseMatrix.fits(maxFrequency, numberOfTopics)) {
+            logger.info("Switching to wide entries for token frequency " + maxFrequency);
+            nw = WideSparseMatrix.of((SparseMatrix) nw);
+        }
+        SparseSweep sweep = new SparseSweep(numberOfTopics, alpha, beta, vocabularySize, nw, nwSum);
+        int[] buffer = new int[numberOfTopics];
+        for (int d = oldNumDocs; d < numDocs; ++d) {
+            int nbrTokensInDoc = tokensInDocuments[d].length;
+            ndSum[d] = nbrTokensInDoc;
+            z[d] = new int[nbrTokensInDoc];
+            int[] ndRow = nd.row(d, buffer);
+            //draw topics from the counts accumulated so far
+            sweep.initialize(tokensInDocuments[d], z[d], ndRow, random);
+            nd.store(d, ndRow);
+        }
+
+        int from = Math.max(0, oldNumDocs - recentDocuments);
+        logger.debug("Initialization complete. Sampling documents " + from + " to " + numDocs);
+        if (numberOfThreads > 1) {
+            ParallelSweep parallelSweep = newParallelSweep(from, numDocs, random);
+            for (int step = 0; step < numberOfSweeps; ++step) {
+                parallelSweep.sweep();
+            }
+            parallelSweep.shutdown();
+            logger.debug("Thread utilisation " + parallelSweep.describeUtilisation());
+        } else {
+            for (int step = 0; step < numberOfSweeps; ++step) {
+                sweep(from, numDocs, random);
+            }
+        }
+        collectStats(tokensInDocuments, new double[numDocs][numberOfTopics], ndSum, nwSum, nd, vocabularySize,
+                new double[numberOfTopics][vocabularySize], nw, 1, numDocs);
+        logger.info("Update complete ");
+    }
+
+    /**
+     * Re-samples topic assignments for all tokens of documents within a given range
+     *
+     * @param from - index of the first document to sample
+     * @param to   - index after the last document to sample
+     */
+    private void sweep(int from, int to, Random random) {
+        SparseSweep sweep = new SparseSweep(numberOfTopics, alpha, beta, vocabularySize, nw, nwSum);
+        sweep.begin();
+        int[] buffer = new int[numberOfTopics];
+        for (int d = from; d < to; d++) {
+            int[] ndRow = nd.row(d, buffer);
+            sweep.sample(tokensInDocuments[d], z[d], ndRow, random);
+            nd.store(d, ndRow);
+        }
+    }
+
+    /**
+     * Re-estimates the priors from histograms of the current counts
+     */
+    private void optimizePriors() {
+        int numDocs = tokensInDocuments.length;
+        int maxLength = 0;
+        for (int d = 0; d < numDocs; ++d) {
+            maxLength = Math.max(maxLength, ndSum[d]);
+        }
+        int[] docLengthHistogram = new int[maxLength + 1];
+        int[] maxCounts = new int[numberOfTopics];
+        int[] buffer = new int[numberOfTopics];
+        for (int d = 0; d < numDocs; ++d) {
+            docLengthHistogram[ndSum[d]]++;
+            int[] ndRow = nd.row(d, buffer);
+            for (int t = 0; t < numberOfTopics; ++t) {
+                maxCounts[t] = Math.max(maxCounts[t], ndRow[t]);
+            }
+        }
+        int[][] topicCountHistogram = new int[numberOfTopics][];
+        for (int t = 0; t < numberOfTopics; ++t) {
+            topicCountHistogram[t] = new int[maxCounts[t] + 1];
+        }
+        for (int d = 0; d < numDocs; ++d) {
+            int[] ndRow = nd.row(d, buffer);
+            for (int t = 0; t < numberOfTopics; ++t) {
+                topicCountHistogram[t][ndRow[t]]++;
+            }
+        }
+        PriorOptimizer.optimizeAlpha(alpha, docLengthHistogram, topicCountHistogram);
+
+        int[] countHistogram = new int[maxFrequency() + 1];
+        double[] ones = SparseSweep.symmetric(numberOfTopics, 1d);
+        double[] counts = new double[numberOfTopics];
+        for (int w = 0; w < vocabularySize; ++w) {
+            Arrays.fill(counts, 0d);
+            nw.accumulate(w, ones, counts);
+            for (double count : counts) {
+                countHistogram[(int) count]++;
+            }
+        }
+        beta = PriorOptimizer.optimizeBeta(beta, vocabularySize, countHistogram, nwSum);
+        logger.debug("Optimized priors: alpha=" + Arrays.toString(alpha) + " beta=" + beta);
+    }
+
+    private ParallelSweep newParallelSweep(int from, int to, Random random) {
+        long numTokens = 0;
+        for (int d = from; d < to; ++d) {
+            numTokens += tokensInDocuments[d].length;
+        }
+        boolean wide = nw instanceof WideSparseMatrix || !SparseMatrix.fits(maxFrequency(), numberOfTopics);
+        return new ParallelSweep(numberOfTopics, alpha, beta, vocabularySize, nw, nwSum, tokensInDocuments, z, nd,
+                from, to, numberOfThreads, ParallelSweep.grain(numTokens, numberOfThreads), wide, random);
+    }
+
+    private int maxFrequency() {
+        return max(frequencies);
+    }
+
+    private static int max(int[] values) {
+        int max = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * @return maximal number of topics each token may be assigned to
+     */
+    private int[] capacities() {
+        int[] capacities = new int[vocabularySize];
+        for (int w = 0; w < vocabularySize; ++w) {
+            capacities[w] = Math.min(numberOfTopics, frequencies[w]);
+        }
+        return capacities;
+    }
+
+    /**
+     * Releases off-heap storage, if used; training can no longer be continued afterwards, while
+     * <code>phi</code> and <code>theta</code> remain available.
+     */
+    public void close() {
+        if (nw instanceof Closeable) {
+            closeQuietly((Closeable) nw);
+        }
+        if (nd instanceof Closeable) {
+            closeQuietly((Closeable) nd);
+        }
+        if (offHeap) {
+            nw = null;
+            nd = null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.warn("Could not release storage", e);
+        }
+    }
+
     private boolean calculatePerplexity(int numDocs, int[][] tokensInDocuments,
-                                        int[][] nd, SparseMatrix nw, int[] ndSum, int[] nwSum, int numberOfTokens) {
+                                        DocTopicCounts nd, WordTopicCounts nw, int[] ndSum, int[] nwSum, int numberOfTokens) {
+        double alphaSum = sum(alpha);
+        double[] inverse = new double[numberOfTopics];
+        for (int t = 0; t < numberOfTopics; t++) {
+            inverse[t] = 1d / (nwSum[t] + numberOfTokens * beta);
+        }
+        double[] thetaRow = new double[numberOfTopics];
+        double[] phiRow = new double[numberOfTopics];
         double exp = 0d;
         int count = 0;
+        int[] buffer = new int[numberOfTopics];
         for (int d = 0; d < numDocs; d++) {
+            int[] ndRow = nd.row(d, buffer);
+            Arrays.fill(thetaRow, 0d);
+            DenseKernels.addSmoothed(ndRow, alpha, 1d / (ndSum[d] + alphaSum), thetaRow, numberOfTopics);
 
             double terms = 0d;
             for (int w : tokensInDocuments[d]) {
-                double c = 0;
-                for (int t = 0; t < numberOfTopics; t++) {
-                    double term = (nd[d][t] + alpha) / (ndSum[d] + numberOfTopics * alpha);
-                    term *= (nw.get(w, t) + beta) / (nwSum[t] + numberOfTokens * beta);
-                    c += term;
-                }
-                terms += Math.log(c);
+                // (nw + beta) / (nwSum + V * beta) for all topics
+                DenseKernels.scale(inverse, beta, phiRow, numberOfTopics);
+                nw.accumulate(w, inverse, phiRow);
+                terms += Math.log(DenseKernels.dot(thetaRow, phiRow, numberOfTopics));
             }
             exp += terms;
             count += tokensInDocuments[d].length;
@@ -318,34 +627,54 @@ public class SparseGibbsSampler  {
 
 
     private void collectStats(int[][] tokensInDocuments, double[][] thetaSum,
-                              int[] ndSum, int[] nwSum, int[][] nd, int numberOfTokens,
-                              double[][] phiSum, SparseMatrix nw, int numStats, int numDocs) {
+                              int[] ndSum, int[] nwSum, DocTopicCounts nd, int numberOfTokens,
+                              double[][] phiSum, WordTopicCounts nw, int numStats, int numDocs) {
+        double alphaSum = sum(alpha);
+        int[] buffer = new int[numberOfTopics];
         for (int d = 0; d < tokensInDocuments.length; d++) {
-            for (int t = 0; t < numberOfTopics; t++) {
-                thetaSum[d][t] += (nd[d][t] + alpha) / (ndSum[d] + numberOfTopics * alpha);
-            }
+            int[] ndRow = nd.row(d, buffer);
+            DenseKernels.addSmoothed(ndRow, alpha, 1d / (ndSum[d] + alphaSum), thetaSum[d], numberOfTopics);
         }
+        double[] inverse = new double[numberOfTopics];
         for (int t = 0; t < numberOfTopics; t++) {
-            for (int w = 0; w < numberOfTokens; w++) {
-                phiSum[t][w] += (nw.get(w, t) + beta) / (nwSum[t] + numberOfTokens * beta);
+            inverse[t] = 1d / (nwSum[t] + numberOfTokens * beta);
+        }
+        double[] phiRow = new double[numberOfTopics];
+        for (int w = 0; w < numberOfTokens; w++) {
+            DenseKernels.scale(inverse, beta, phiRow, numberOfTopics);
+            nw.accumulate(w, inverse, phiRow);
+            for (int t = 0; t < numberOfTopics; t++) {
+                phiSum[t][w] += phiRow[t];
             }
         }
         theta = new double[tokensInDocuments.length][numberOfTopics];
         for (int d = 0; d < tokensInDocuments.length; d++) {
-            for (int k = 0; k < numberOfTopics; k++) {
-                theta[d][k] = thetaSum[d][k] / numStats;
-            }
+            DenseKernels.scale(thetaSum[d], 1d / numStats, theta[d], numberOfTopics);
         }
         phi = new double[numberOfTopics][numberOfTokens];
         for (int k = 0; k < numberOfTopics; k++) {
-            for (int w = 0; w < numberOfTokens; w++) {
-                phi[k][w] = phiSum[k][w] / numStats;
-            }
+            DenseKernels.scale(phiSum[k], 1d / numStats, phi[k], numberOfTokens);
         }
+    }
 
+    private static double sum(double[] values) {
+        double sum = 0d;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
 
+    /**
+     * @return document-topic prior of each topic, as optimized if requested
+     */
+    public double[] getAlpha() {
+        return alpha.clone();
     }
 
+    public double getBeta() {
+        return beta;
+    }
 
     public double[][] getPhi() {
         return phi;
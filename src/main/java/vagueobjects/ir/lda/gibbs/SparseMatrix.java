@@ -23,7 +23,7 @@ import java.util.Arrays;
  * This class is useful when dealing with sparse arrays; it takes lesser amount of memory (virtually linear
  * in the number of rows).
  */
-class SparseMatrix {
+class SparseMatrix implements WordTopicCounts {
     /**
      * Rows are maintained in sorted order
      */
@@ -168,6 +168,25 @@ class SparseMatrix {
         }
     }
 
+    /**
+     * Replaces a row with given counts
+     *
+     * @param topics - keys of the row
+     * @param counts - positive values for each key
+     */
+    void setRow(int r, int[] topics, int[] counts) {
+        setRow(r, topics, counts, topics.length);
+    }
+
+    public void setRow(int r, int[] topics, int[] counts, int size) {
+        int[] _arr = new int[size];
+        for (int i = 0; i < size; ++i) {
+            _arr[i] = (counts[i] << shift) + topics[i];
+        }
+        Arrays.sort(_arr);
+        array[r] = _arr;
+    }
+
     private void startArray(int r, int t) {
         array[r] = new int[1];
         array[r][0] = (1 << shift) + t;
@@ -176,6 +195,15 @@ class SparseMatrix {
     /**
      * Traverses the internal array
      */
+    public int row(int w, int[] topics, int[] counts) {
+        int[] row = array[w];
+        for (int i = 0; i < row.length; ++i) {
+            topics[i] = row[i] & mask;
+            counts[i] = row[i] >> shift;
+        }
+        return row.length;
+    }
+
     public int get(int w, int t) {
         for (int i = array[w].length - 1; i >= 0; i--) {
             if ((array[w][i] & mask) == t) {
@@ -185,6 +213,43 @@ class SparseMatrix {
         return 0;
     }
 
+    public double weightedSum(int w, double[] coefficients) {
+        double sum = 0d;
+        for (int row : array[w]) {
+            sum += coefficients[row & mask] * (row >> shift);
+        }
+        return sum;
+    }
+
+    public void accumulate(int w, double[] coefficients, double[] target) {
+        for (int row : array[w]) {
+            int t = row & mask;
+            target[t] += coefficients[t] * (row >> shift);
+        }
+    }
+
+    public int sample(int w, double[] coefficients, double u) {
+        int[] row = array[w];
+        assert row.length > 0;
+        int topic = 0;
+        double sum = 0d;
+        for (int i = row.length - 1; i >= 0; --i) {
+            topic = row[i] & mask;
+            sum += coefficients[topic] * (row[i] >> shift);
+            if (sum > u) {
+                break;
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * @return whether a count fits into an entry along with keys below <code>maxKey</code>
+     */
+    static boolean fits(int count, int maxKey) {
+        return count < (1 << (31 - minExponent(maxKey)));
+    }
+
     /**
      * @return smallest m such that 2**m>=t
      */
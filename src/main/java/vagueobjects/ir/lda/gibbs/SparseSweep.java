@@ -0,0 +1,230 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sparse sampling kernel: re-samples topic assignments of a document by splitting the conditional
+ * distribution into smoothing-only (s), document-topic (r) and topic-word (q) buckets. The word-topic
+ * counts are shared by all documents, while document-topic counts are supplied per document.
+ */
+class SparseSweep {
+    private final int numberOfTopics;
+    private final int vocabularySize;
+    /**
+     * Document-topic prior of each topic
+     */
+    private double[] alpha;
+    private double beta;
+    private double nBeta;
+    private final WordTopicCounts nw;
+    private final int[] nwSum;
+    /**
+     * Coefficients of the q bucket
+     */
+    private final double[] cache;
+    private final double[] p;
+    private final double[] coefficients;
+    private double s;
+
+    SparseSweep(int numberOfTopics, double alpha, double beta, int vocabularySize, WordTopicCounts nw, int[] nwSum) {
+        this(numberOfTopics, symmetric(numberOfTopics, alpha), beta, vocabularySize, nw, nwSum);
+    }
+
+    /**
+     * @param alpha - document-topic prior of each topic
+     */
+    SparseSweep(int numberOfTopics, double[] alpha, double beta, int vocabularySize, WordTopicCounts nw,
+                int[] nwSum) {
+        this.numberOfTopics = numberOfTopics;
+        this.vocabularySize = vocabularySize;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.nBeta = vocabularySize * beta;
+        this.nw = nw;
+        this.nwSum = nwSum;
+        this.cache = new double[numberOfTopics];
+        this.p = new double[numberOfTopics];
+        this.coefficients = new double[numberOfTopics];
+    }
+
+    static double[] symmetric(int numberOfTopics, double alpha) {
+        double[] priors = new double[numberOfTopics];
+        Arrays.fill(priors, alpha);
+        return priors;
+    }
+
+    /**
+     * Replaces the priors; {@link #begin()} must be called before sampling goes on
+     *
+     * @param alpha - document-topic prior of each topic
+     * @param beta  - topic-word prior
+     */
+    void setPriors(double[] alpha, double beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.nBeta = vocabularySize * beta;
+    }
+
+    /**
+     * Resets the smoothing bucket and the cache; must be called before a sweep starts
+     */
+    void begin() {
+        s = 0d;
+        for (int t = 0; t < numberOfTopics; ++t) {
+            cache[t] = alpha[t] / (nwSum[t] + nBeta);
+            s += cache[t];
+        }
+        s *= beta;
+    }
+
+    /**
+     * Assigns topics to tokens of a document that has not been sampled yet, drawing them
+     * from the counts accumulated so far.
+     *
+     * @param tokens - token IDs of the document
+     * @param z      - topic assignments to fill in
+     * @param nd     - document-topic counts, all zeros on input
+     */
+    void initialize(int[] tokens, int[] z, int[] nd, Random random) {
+        for (int w = 0; w < tokens.length; w++) {
+            int wid = tokens[w];
+            for (int t = 0; t < numberOfTopics; t++) {
+                coefficients[t] = (nd[t] + alpha[t]) / (nwSum[t] + nBeta);
+                p[t] = beta * coefficients[t];
+            }
+            nw.accumulate(wid, coefficients, p);
+            for (int t = 1; t < numberOfTopics; t++) {
+                p[t] += p[t - 1];
+            }
+            double u = random.nextDouble() * p[numberOfTopics - 1];
+            int topic = 0;
+            while (topic < numberOfTopics - 1 && p[topic] <= u) {
+                topic++;
+            }
+            z[w] = topic;
+            nw.increment(wid, topic);
+            nd[topic]++;
+            nwSum[topic]++;
+        }
+    }
+
+    /**
+     * Removes topic assignments of a document from word-topic counts
+     */
+    void retire(int[] tokens, int[] z) {
+        for (int w = 0; w < tokens.length; w++) {
+            nw.decrement(tokens[w], z[w]);
+            nwSum[z[w]]--;
+        }
+    }
+
+    /**
+     * Re-samples topic assignments of all tokens in a document
+     *
+     * @param tokens - token IDs of the document
+     * @param z      - current topic assignments, updated in place
+     * @param nd     - document-topic counts, updated in place
+     */
+    void sample(int[] tokens, int[] z, int[] nd, Random random) {
+        sample(tokens, z, nd, 0, z.length, random);
+    }
+
+    /**
+     * Re-samples topic assignments of tokens within a given range of a document
+     *
+     * @param tokens - token IDs of the document, as row indices of the word-topic counts
+     * @param z      - current topic assignments, updated in place
+     * @param nd     - document-topic counts over all tokens of the document, updated in place
+     * @param from   - index of the first token to sample
+     * @param to     - index after the last token to sample
+     */
+    void sample(int[] tokens, int[] z, int[] nd, int from, int to, Random random) {
+        double r = 0f;
+        for (int t = 0; t < numberOfTopics; t++) {
+            if (nd[t] > 0) {
+                double x = nd[t] / (nwSum[t] + nBeta);
+                r += x;
+                cache[t] += x;
+            }
+        }
+        r *= beta;
+
+        for (int w = from; w < to; w++) {
+            int topic = z[w];  //current topic assignment
+            int wid = tokens[w];
+            //update cache
+            double x = nwSum[topic] + nBeta;
+            //update s
+
+            double Y = beta / (x * x - x);
+            s += Y * alpha[topic];
+            //update r
+            r -= Y * (x - nd[topic]);
+
+
+            nw.decrement(wid, topic);
+            nd[topic]--;
+            nwSum[topic]--;
+            cache[topic] = (alpha[topic] + nd[topic]) / (nwSum[topic] + nBeta);
+
+            double q = nw.weightedSum(wid, cache);
+
+            double u = random.nextDouble() * (q + r + s);
+            if (u < s) {
+                double sum = 0;
+                for (topic = 0; topic < numberOfTopics; topic++) {
+                    sum += beta * alpha[topic] / (nwSum[topic] + nBeta);
+                    if (sum > u) {
+                        break;
+                    }
+                }
+            } else if (u < s + r) {
+                double sum = 0;
+                for (topic = 0; topic < numberOfTopics; topic++) {
+                    if (nd[topic] > 0) {
+                        sum += beta * nd[topic] / (nwSum[topic] + nBeta);
+                        if (sum + s > u) {
+                            break;
+                        }
+                    }
+                }
+            } else {
+                topic = nw.sample(wid, cache, u - s - r);
+                assert topic < numberOfTopics;
+            }
+
+            x = nwSum[topic] + nBeta;
+            double X = beta / (x * x + x);
+            s -= X * alpha[topic];
+            r += X * (x - nd[topic]);
+            nw.increment(wid, topic);
+            nd[topic]++;
+            nwSum[topic]++;
+            cache[topic] = (alpha[topic] + nd[topic]) / (nwSum[topic] + nBeta);
+            z[w] = topic;   //new topic assignment
+        }
+        for (int t = 0; t < numberOfTopics; t++) {
+            if (nd[t] > 0) {
+                cache[t] -= nd[t] / (nwSum[t] + nBeta);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * Streaming version of the sparse Gibbs sampler that models topics over a sliding window of document
+ * batches (e.g. one batch per day). Each call to {@link #advance} adds a batch to the window, retires the
+ * oldest batch once the window is full by subtracting its topic assignments from the word-topic counts,
+ * and then runs a bounded number of sweeps over documents within the window. Memory and cost of
+ * an update are therefore proportional to the window, not to the whole history of the stream.
+ * <p/>
+ * Topic snapshots ({@link #getPhi()} and {@link #getTheta()}) may be taken at any time, including from
+ * threads other than the one feeding the stream: they are computed from a copy of the counts published at
+ * the end of each update, and do not wait for an update in progress.
+ */
+public class StreamingGibbsSampler {
+    private static Logger logger = Logger.getLogger(StreamingGibbsSampler.class);
+    private final int numberOfTopics;
+    private final int vocabularySize;
+    /**
+     * Maximal number of batches kept in the window
+     */
+    private final int windowSize;
+    /**
+     * Number of sweeps over the window after each update
+     */
+    private final int numberOfSweeps;
+    /**
+     * Document-topic association
+     */
+    private final double alpha;
+    /**
+     * Topic-term association
+     */
+    private final double beta;
+    private final SparseMatrix nw;
+    private final int[] nwSum;
+    private final Deque<Batch> window = new ArrayDeque<Batch>();
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param numberOfTopics - number of topics to extract
+     * @param vocabularySize - size of vocabulary used
+     * @param windowSize     - number of batches the window holds
+     * @param numberOfSweeps - number of sweeps over the window performed after each batch is added
+     */
+    public StreamingGibbsSampler(int numberOfTopics, int vocabularySize, int windowSize, int numberOfSweeps) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window must hold at least one batch");
+        }
+        this.numberOfTopics = numberOfTopics;
+        this.vocabularySize = vocabularySize;
+        this.windowSize = windowSize;
+        this.numberOfSweeps = numberOfSweeps;
+        this.alpha = Math.min(1d, 50.0d / numberOfTopics);
+        this.beta = 0.01;
+        this.nw = new SparseMatrix(vocabularySize, numberOfTopics);
+        this.nwSum = new int[numberOfTopics];
+        this.snapshot = takeSnapshot();
+    }
+
+    public void advance(int[][] tokensInDocuments) {
+        advance(tokensInDocuments, new Random());
+    }
+
+    /**
+     * Adds a batch of documents to the window, retires the oldest batch if the window is full,
+     * and re-samples documents within the window.
+     *
+     * @param tokensInDocuments - token IDs of the new documents
+     * @param random            - an instance of the <code>Random</code> class used for simulation
+     */
+    public synchronized void advance(int[][] tokensInDocuments, Random random) {
+        //the whole batch is validated first, as counts of a partly initialised batch could never be retired
+        for (int d = 0; d < tokensInDocuments.length; ++d) {
+            int[] tokens = tokensInDocuments[d];
+            if (tokens.length <= 1) {
+                throw new IllegalArgumentException("Too few tokens (" + tokens.length + ") in document #" + d);
+            }
+            for (int wid : tokens) {
+                if (wid < 0 || wid >= vocabularySize) {
+                    throw new IllegalArgumentException("Token " + wid + " in document #" + d
+                            + " is outside of vocabulary");
+                }
+            }
+        }
+        SparseSweep sweep = new SparseSweep(numberOfTopics, alpha, beta, vocabularySize, nw, nwSum);
+        Batch batch = new Batch(tokensInDocuments);
+        for (int d = 0; d < tokensInDocuments.length; ++d) {
+            int[] tokens = tokensInDocuments[d];
+            batch.z[d] = new int[tokens.length];
+            batch.nd[d] = new int[numberOfTopics];
+            sweep.initialize(tokens, batch.z[d], batch.nd[d], random);
+        }
+        window.addLast(batch);
+
+        while (window.size() > windowSize) {
+            Batch retired = window.removeFirst();
+            for (int d = 0; d < retired.tokens.length; ++d) {
+                sweep.retire(retired.tokens[d], retired.z[d]);
+            }
+            logger.debug("Retired batch of " + retired.tokens.length + " documents");
+        }
+
+        for (int step = 0; step < numberOfSweeps; ++step) {
+            sweep.begin();
+            for (Batch b : window) {
+                for (int d = 0; d < b.tokens.length; ++d) {
+                    sweep.sample(b.tokens[d], b.z[d], b.nd[d], random);
+                }
+            }
+        }
+        snapshot = takeSnapshot();
+        logger.debug("Window holds " + window.size() + " batches, " + getNumberOfDocuments() + " documents");
+    }
+
+    /**
+     * @return number of documents within the window, as of the latest completed update
+     */
+    public int getNumberOfDocuments() {
+        return snapshot.nd.length;
+    }
+
+    /**
+     * @return topic-token associations estimated from the window, as of the latest completed update
+     */
+    public double[][] getPhi() {
+        Snapshot snapshot = this.snapshot;
+        double[][] phi = new double[numberOfTopics][vocabularySize];
+        double nBeta = vocabularySize * beta;
+        for (int t = 0; t < numberOfTopics; t++) {
+            for (int w = 0; w < vocabularySize; w++) {
+                phi[t][w] = beta / (snapshot.nwSum[t] + nBeta);
+            }
+        }
+        for (int w = 0; w < vocabularySize; w++) {
+            for (int row : snapshot.rows[w]) {
+                int t = row & nw.mask;
+                phi[t][w] += (row >> nw.shift) / (snapshot.nwSum[t] + nBeta);
+            }
+        }
+        return phi;
+    }
+
+    /**
+     * @return document-topic associations for documents within the window, oldest first, as of the latest
+     *         completed update
+     */
+    public double[][] getTheta() {
+        Snapshot snapshot = this.snapshot;
+        double[][] theta = new double[snapshot.nd.length][numberOfTopics];
+        for (int d = 0; d < theta.length; ++d) {
+            double norm = snapshot.lengths[d] + numberOfTopics * alpha;
+            for (int t = 0; t < numberOfTopics; t++) {
+                theta[d][t] = (snapshot.nd[d][t] + alpha) / norm;
+            }
+        }
+        return theta;
+    }
+
+    /**
+     * Copies the counts, once an update is complete
+     */
+    private Snapshot takeSnapshot() {
+        int[][] rows = new int[vocabularySize][];
+        for (int w = 0; w < vocabularySize; w++) {
+            rows[w] = nw.array[w].clone();
+        }
+        int numberOfDocuments = 0;
+        for (Batch b : window) {
+            numberOfDocuments += b.tokens.length;
+        }
+        int[][] nd = new int[numberOfDocuments][];
+        int[] lengths = new int[numberOfDocuments];
+        int i = 0;
+        for (Batch b : window) {
+            for (int d = 0; d < b.tokens.length; ++d, ++i) {
+                nd[i] = b.nd[d].clone();
+                lengths[i] = b.tokens[d].length;
+            }
+        }
+        return new Snapshot(rows, nwSum.clone(), nd, lengths);
+    }
+
+    /**
+     * Counts as of the latest completed update; never modified, so that it is read without locking
+     */
+    private static class Snapshot {
+        /**
+         * Rows of word-topic counts, packed as in {@link SparseMatrix}
+         */
+        final int[][] rows;
+        final int[] nwSum;
+        final int[][] nd;
+        /**
+         * Number of tokens of each document
+         */
+        final int[] lengths;
+
+        Snapshot(int[][] rows, int[] nwSum, int[][] nd, int[] lengths) {
+            this.rows = rows;
+            this.nwSum = nwSum;
+            this.nd = nd;
+            this.lengths = lengths;
+        }
+    }
+
+    /**
+     * Documents that entered the window together, along with their sampler state
+     */
+    static class Batch {
+        final int[][] tokens;
+        final int[][] z;
+        final int[][] nd;
+
+        Batch(int[][] tokens) {
+            this.tokens = tokens;
+            this.z = new int[tokens.length][];
+            this.nd = new int[tokens.length][];
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Chooses the number of topics by training sparse Gibbs samplers for several numbers of topics concurrently,
+ * over a single copy of the corpus. A share of documents is held out; every <code>evaluationInterval</code>
+ * sweeps, each job estimates its held-out perplexity by document completion (topics of each held-out
+ * document are inferred from the first half of its tokens, and the second half is predicted), and jobs
+ * clearly worse than the best one so far are cancelled.
+ * <p/>
+ * Before a job starts, the memory its state may take is bounded from above; jobs beyond the memory budget
+ * are rejected rather than risking to run out of memory.
+ */
+public class TopicCountSelector {
+    private static Logger logger = Logger.getLogger(TopicCountSelector.class);
+    private final int[] topicCounts;
+    private final int numberOfIterations;
+    private final int evaluationInterval;
+    private final long memoryBudget;
+    private final double cancellationMargin;
+    /**
+     * Topic-term association
+     */
+    private final double beta;
+    private Status[] statuses;
+    private double[] perplexities;
+    private int[] iterations;
+
+    public static final double DEFAULT_CANCELLATION_MARGIN = 0.05;
+    public static final double DEFAULT_HELD_OUT_FRACTION = 0.1;
+    /**
+     * Number of sweeps used to infer topics of a held-out document
+     */
+    static final int FOLD_IN_SWEEPS = 10;
+
+    public static enum Status {
+        /**
+         * All iterations have been run
+         */
+        COMPLETED,
+        /**
+         * Stopped early, since clearly worse than another job
+         */
+        CANCELLED,
+        /**
+         * Not run, since over the memory budget
+         */
+        REJECTED
+    }
+
+    /**
+     * @param topicCounts        - numbers of topics to compare
+     * @param numberOfIterations - number of sweeps each job runs unless cancelled
+     * @param evaluationInterval - number of sweeps between held-out evaluations
+     * @param memoryBudget       - number of bytes the state of a job may take
+     */
+    public TopicCountSelector(int[] topicCounts, int numberOfIterations, int evaluationInterval, long memoryBudget) {
+        this(topicCounts, numberOfIterations, evaluationInterval, memoryBudget, DEFAULT_CANCELLATION_MARGIN);
+    }
+
+    /**
+     * @param topicCounts        - numbers of topics to compare
+     * @param numberOfIterations - number of sweeps each job runs unless cancelled
+     * @param evaluationInterval - number of sweeps between held-out evaluations
+     * @param memoryBudget       - number of bytes the state of a job may take
+     * @param cancellationMargin - relative excess of held-out perplexity over the best one at which a job
+     *                           is cancelled
+     */
+    public TopicCountSelector(int[] topicCounts, int numberOfIterations, int evaluationInterval, long memoryBudget,
+                              double cancellationMargin) {
+        this.topicCounts = topicCounts.clone();
+        this.numberOfIterations = numberOfIterations;
+        this.evaluationInterval = evaluationInterval;
+        this.memoryBudget = memoryBudget;
+        this.cancellationMargin = cancellationMargin;
+        this.beta = 0.01;
+    }
+
+    public void execute(int[][] tokensInDocuments, int vocabularySize) {
+        execute(tokensInDocuments, vocabularySize, DEFAULT_HELD_OUT_FRACTION, new Random());
+    }
+
+    /**
+     * Runs all jobs
+     *
+     * @param tokensInDocuments - an array where the first dimension represents the
+     *                          document index, and each document (row) is defined by a set of token IDs.
+     * @param vocabularySize    - size of vocabulary used
+     * @param heldOutFraction   - share of documents, picked at random, left out of training for evaluation
+     * @param random            - an instance of the <code>Random</code> class used for simulation
+     */
+    public void execute(int[][] tokensInDocuments, int vocabularySize, double heldOutFraction, Random random) {
+        int numDocs = tokensInDocuments.length;
+        int numHeldOut = (int) Math.round(numDocs * heldOutFraction);
+        if (numHeldOut < 1 || numHeldOut >= numDocs) {
+            throw new IllegalArgumentException("Cannot hold out " + numHeldOut + " of " + numDocs + " documents");
+        }
+        //rows are shared, not copied
+        int[][] documents = tokensInDocuments.clone();
+        for (int d = numDocs - 1; d > 0; --d) {
+            int j = random.nextInt(d + 1);
+            int[] row = documents[d];
+            documents[d] = documents[j];
+            documents[j] = row;
+        }
+        int[][] training = Arrays.copyOfRange(documents, numHeldOut, numDocs);
+        int[][] heldOut = Arrays.copyOfRange(documents, 0, numHeldOut);
+        int[] frequencies = new int[vocabularySize];
+        for (int d = 0; d < training.length; ++d) {
+            if (training[d].length <= 1) {
+                throw new IllegalArgumentException("Too few tokens (" + training[d].length + ") in a document");
+            }
+            for (int wid : training[d]) {
+                frequencies[wid]++;
+            }
+        }
+
+        int numJobs = topicCounts.length;
+        statuses = new Status[numJobs];
+        perplexities = new double[numJobs];
+        iterations = new int[numJobs];
+        Arrays.fill(perplexities, Double.NaN);
+        int maxFrequency = 0;
+        for (int frequency : frequencies) {
+            maxFrequency = Math.max(maxFrequency, frequency);
+        }
+        List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < numJobs; ++i) {
+            long bytes = estimateMemory(training, frequencies, topicCounts[i]);
+            if (bytes > memoryBudget) {
+                logger.warn("Rejecting " + topicCounts[i] + " topics: needs up to " + bytes
+                        + " bytes, budget is " + memoryBudget);
+                statuses[i] = Status.REJECTED;
+            } else {
+                jobs.add(new Job(i, training, heldOut, vocabularySize, maxFrequency,
+                        new Random(random.nextLong())));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(jobs.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            int step = 0;
+            while (!jobs.isEmpty() && step < numberOfIterations) {
+                final int sweeps = Math.min(evaluationInterval, numberOfIterations - step);
+                List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+                for (final Job job : jobs) {
+                    tasks.add(new Callable<Double>() {
+                        @Override
+                        public Double call() {
+                            for (int i = 0; i < sweeps; ++i) {
+                                job.sweep();
+                            }
+                            return job.heldOutPerplexity();
+                        }
+                    });
+                }
+                List<Future<Double>> futures = executor.invokeAll(tasks);
+                step += sweeps;
+                double best = Double.POSITIVE_INFINITY;
+                for (int j = 0; j < jobs.size(); ++j) {
+                    int i = jobs.get(j).index;
+                    perplexities[i] = futures.get(j).get();
+                    iterations[i] = step;
+                    best = Math.min(best, perplexities[i]);
+                }
+                logger.debug("Completed step " + step + " out of " + numberOfIterations
+                        + ", held-out perplexity " + Arrays.toString(perplexities));
+                //the first evaluation is too early to tell
+                if (step > evaluationInterval) {
+                    for (int j = jobs.size() - 1; j >= 0; --j) {
+                        int i = jobs.get(j).index;
+                        if (perplexities[i] > best * (1 + cancellationMargin)) {
+                            logger.info("Cancelling " + topicCounts[i] + " topics after " + step
+                                    + " iterations: held-out perplexity " + perplexities[i] + ", best " + best);
+                            statuses[i] = Status.CANCELLED;
+                            jobs.remove(j);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        for (Job job : jobs) {
+            statuses[job.index] = Status.COMPLETED;
+        }
+        logger.info("Selection complete, best number of topics: " + getBestNumberOfTopics());
+    }
+
+    /**
+     * Bounds from above the number of bytes taken by topic assignments, document-topic counts and
+     * word-topic counts of a job
+     */
+    static long estimateMemory(int[][] training, int[] frequencies, int numberOfTopics) {
+        long bytes = 0;
+        int maxFrequency = 0;
+        for (int[] tokens : training) {
+            //assignments and counts of the document, with array headers
+            bytes += 4L * tokens.length + 4L * numberOfTopics + 32;
+        }
+        long entries = 0;
+        for (int frequency : frequencies) {
+            entries += Math.min(frequency, numberOfTopics);
+            maxFrequency = Math.max(maxFrequency, frequency);
+        }
+        int entrySize = SparseMatrix.fits(maxFrequency, numberOfTopics) ? 4 : 8;
+        bytes += entrySize * entries + 24L * frequencies.length;
+        return bytes;
+    }
+
+    /**
+     * @return number of topics of the completed job with the lowest held-out perplexity,
+     *         or -1 if no job was run
+     */
+    public int getBestNumberOfTopics() {
+        int best = -1;
+        for (int i = 0; i < topicCounts.length; ++i) {
+            if (statuses[i] == Status.COMPLETED && (best < 0 || perplexities[i] < perplexities[best])) {
+                best = i;
+            }
+        }
+        return best < 0 ? -1 : topicCounts[best];
+    }
+
+    public int[] getTopicCounts() {
+        return topicCounts.clone();
+    }
+
+    /**
+     * @return latest held-out perplexity of each job, <code>NaN</code> for rejected jobs
+     */
+    public double[] getPerplexities() {
+        return perplexities;
+    }
+
+    public Status[] getStatuses() {
+        return statuses;
+    }
+
+    /**
+     * @return number of sweeps each job has run
+     */
+    public int[] getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Training state for a number of topics
+     */
+    private class Job extends GibbsChain {
+        private final int index;
+        private final int[][] heldOut;
+        private final Random random;
+
+        Job(int index, int[][] training, int[][] heldOut, int vocabularySize, int maxFrequency, Random random) {
+            super(training, vocabularySize, topicCounts[index], Math.min(1d, 50.0d / topicCounts[index]),
+                    TopicCountSelector.this.beta, maxFrequency, random);
+            this.index = index;
+            this.heldOut = heldOut;
+            this.random = random;
+        }
+
+        /**
+         * Estimates perplexity of the second half of held-out documents, given topics inferred from the first
+         * half with the word-topic counts fixed
+         */
+        double heldOutPerplexity() {
+            double nBeta = vocabularySize * beta;
+            double[] inverse = new double[numberOfTopics];
+            for (int t = 0; t < numberOfTopics; ++t) {
+                inverse[t] = 1d / (nwSum[t] + nBeta);
+            }
+            double[] phi = new double[numberOfTopics];
+            double[] p = new double[numberOfTopics];
+            int[] counts = new int[numberOfTopics];
+            double logLikelihood = 0d;
+            long numTokens = 0;
+            for (int[] tokens : heldOut) {
+                int half = tokens.length / 2;
+                int[] topics = new int[half];
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < half; ++i) {
+                    topics[i] = random.nextInt(numberOfTopics);
+                    counts[topics[i]]++;
+                }
+                for (int s = 0; s < FOLD_IN_SWEEPS; ++s) {
+                    for (int i = 0; i < half; ++i) {
+                        counts[topics[i]]--;
+                        wordProbabilities(tokens[i], inverse, phi);
+                        double sum = 0d;
+                        for (int t = 0; t < numberOfTopics; ++t) {
+                            sum += (counts[t] + alpha) * phi[t];
+                            p[t] = sum;
+                        }
+                        double u = random.nextDouble() * sum;
+                        int topic = 0;
+                        while (topic < numberOfTopics - 1 && p[topic] <= u) {
+                            topic++;
+                        }
+                        topics[i] = topic;
+                        counts[topic]++;
+                    }
+                }
+                double norm = half + numberOfTopics * alpha;
+                for (int i = half; i < tokens.length; ++i) {
+                    wordProbabilities(tokens[i], inverse, phi);
+                    double likelihood = 0d;
+                    for (int t = 0; t < numberOfTopics; ++t) {
+                        likelihood += (counts[t] + alpha) / norm * phi[t];
+                    }
+                    logLikelihood += Math.log(likelihood);
+                    numTokens++;
+                }
+            }
+            return Math.exp(-logLikelihood / Math.max(1, numTokens));
+        }
+
+        /**
+         * Fills in the probability of a token under each topic
+         */
+        private void wordProbabilities(int wid, double[] inverse, double[] phi) {
+            for (int t = 0; t < numberOfTopics; ++t) {
+                phi[t] = beta * inverse[t];
+            }
+            nw.accumulate(wid, inverse, phi);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.Arrays;
+
+/**
+ * Same as {@link SparseMatrix}, but entries are packed into longs, so that counts are not limited by
+ * the bits left over by the key in an int. Rows are maintained in sorted order, i.e. by count and
+ * then by key.
+ */
+class WideSparseMatrix implements WordTopicCounts {
+    long[][] array;
+    final long mask;
+    final int shift;
+
+    public WideSparseMatrix(int numRows, int maxKey) {
+        this.shift = SparseMatrix.minExponent(maxKey);
+        this.mask = (1L << shift) - 1;
+        this.array = new long[numRows][];
+        for (int i = 0; i < numRows; ++i) {
+            array[i] = new long[0];
+        }
+    }
+
+    /**
+     * Creates a wide copy of a matrix
+     */
+    static WideSparseMatrix of(SparseMatrix matrix) {
+        WideSparseMatrix wide = new WideSparseMatrix(matrix.array.length, matrix.mask + 1);
+        for (int r = 0; r < matrix.array.length; ++r) {
+            int[] row = matrix.array[r];
+            wide.array[r] = new long[row.length];
+            for (int i = 0; i < row.length; ++i) {
+                wide.array[r][i] = ((long) (row[i] >> matrix.shift) << wide.shift) + (row[i] & matrix.mask);
+            }
+        }
+        return wide;
+    }
+
+    public int size(int row) {
+        return array[row].length;
+    }
+
+    public int get(int w, int t) {
+        for (int i = array[w].length - 1; i >= 0; i--) {
+            if ((array[w][i] & mask) == t) {
+                return (int) (array[w][i] >> shift);
+            }
+        }
+        return 0;
+    }
+
+    public void increment(int r, int t) {
+        long[] row = array[r];
+        for (int i = 0; i < row.length; ++i) {
+            if ((row[i] & mask) == t) {
+                row[i] += 1L << shift;
+                //swap subsequent elements until all elements are sorted
+                for (int j = i + 1; j < row.length && row[j] < row[j - 1]; ++j) {
+                    long temp = row[j];
+                    row[j] = row[j - 1];
+                    row[j - 1] = temp;
+                }
+                return;
+            }
+        }
+        long[] _arr = new long[row.length + 1];
+        System.arraycopy(row, 0, _arr, 0, row.length);
+        _arr[row.length] = (1L << shift) + t;
+        Arrays.sort(_arr);
+        array[r] = _arr;
+    }
+
+    public void decrement(int r, int t) {
+        long[] row = array[r];
+        for (int i = 0; i < row.length; ++i) {
+            if ((row[i] & mask) == t) {
+                row[i] -= 1L << shift;
+                if (row[i] >> shift == 0) {
+                    long[] _arr = new long[row.length - 1];
+                    System.arraycopy(row, 0, _arr, 0, i);
+                    System.arraycopy(row, i + 1, _arr, i, _arr.length - i);
+                    array[r] = _arr;
+                    return;
+                }
+                //swap preceding elements until all elements are sorted
+                for (int j = i - 1; j >= 0 && row[j] > row[j + 1]; --j) {
+                    long temp = row[j];
+                    row[j] = row[j + 1];
+                    row[j + 1] = temp;
+                }
+                return;
+            }
+        }
+        throw new IllegalStateException("Could not find the key: " + t);
+    }
+
+    public void setRow(int r, int[] topics, int[] counts, int size) {
+        long[] _arr = new long[size];
+        for (int i = 0; i < size; ++i) {
+            _arr[i] = ((long) counts[i] << shift) + topics[i];
+        }
+        Arrays.sort(_arr);
+        array[r] = _arr;
+    }
+
+    public int row(int w, int[] topics, int[] counts) {
+        long[] row = array[w];
+        for (int i = 0; i < row.length; ++i) {
+            topics[i] = (int) (row[i] & mask);
+            counts[i] = (int) (row[i] >> shift);
+        }
+        return row.length;
+    }
+
+    public double weightedSum(int w, double[] coefficients) {
+        double sum = 0d;
+        for (long row : array[w]) {
+            sum += coefficients[(int) (row & mask)] * (row >> shift);
+        }
+        return sum;
+    }
+
+    public void accumulate(int w, double[] coefficients, double[] target) {
+        for (long row : array[w]) {
+            int t = (int) (row & mask);
+            target[t] += coefficients[t] * (row >> shift);
+        }
+    }
+
+    public int sample(int w, double[] coefficients, double u) {
+        long[] row = array[w];
+        assert row.length > 0;
+        int topic = 0;
+        double sum = 0d;
+        for (int i = row.length - 1; i >= 0; --i) {
+            topic = (int) (row[i] & mask);
+            sum += coefficients[topic] * (row[i] >> shift);
+            if (sum > u) {
+                break;
+            }
+        }
+        return topic;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.deepToString(array);
+    }
+}
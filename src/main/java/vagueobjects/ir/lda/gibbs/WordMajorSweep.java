@@ -0,0 +1,271 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sweeps over the corpus token by token of the vocabulary rather than document by document: all
+ * occurrences of a token are sampled together, using an inverted index of the corpus. The counts of
+ * the token are expanded into a dense array once, updated in constant time for each occurrence, and
+ * written back to the word-topic counts when done; document-topic counts are visited through
+ * the non-zero topics of each document only.
+ * <p/>
+ * With <code>c[t] = 1 / (nwSum[t] + V * beta)</code>, the conditional distribution is split into
+ * a document bucket <code>nd[t] * (nw[t] + beta) * c[t]</code> over topics of the document, a token bucket
+ * <code>alpha[t] * nw[t] * c[t]</code> over topics of the token, and a smoothing bucket
+ * <code>alpha[t] * beta * c[t]</code> over all topics. The latter two are updated incrementally.
+ */
+class WordMajorSweep {
+    private final int numberOfTopics;
+    /**
+     * Document-topic prior of each topic
+     */
+    private double[] alpha;
+    private double beta;
+    private double nBeta;
+    private final int vocabularySize;
+    private final WordTopicCounts nw;
+    private final int[] nwSum;
+    /**
+     * Occurrences of tokens, grouped by token: document index and position within the document
+     */
+    private final int[] occurrenceDoc;
+    private final int[] occurrencePosition;
+    /**
+     * Start of the occurrences of each token
+     */
+    private final int[] tokenStart;
+    /**
+     * Non-zero topics of each document, in no particular order
+     */
+    private final int[][] docTopics;
+    private final int[] docTopicsSize;
+    /**
+     * Coefficients <code>c[t]</code>
+     */
+    private final double[] inverse;
+    private final double[] ones;
+    //Counts of the token being sampled, and the index of its non-zero topics
+    private final double[] tokenCounts;
+    private final int[] tokenTopics;
+    private final int[] tokenPosition;
+    private final int[] rowCounts;
+    private int tokenTopicsSize;
+
+    /**
+     * @param tokensInDocuments - token IDs of each document
+     */
+    WordMajorSweep(int numberOfTopics, double[] alpha, double beta, int vocabularySize,
+                   WordTopicCounts nw, int[] nwSum, int[][] tokensInDocuments) {
+        this.numberOfTopics = numberOfTopics;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.nBeta = vocabularySize * beta;
+        this.vocabularySize = vocabularySize;
+        this.nw = nw;
+        this.nwSum = nwSum;
+        this.tokenStart = new int[vocabularySize + 1];
+        int numTokens = 0;
+        for (int[] tokens : tokensInDocuments) {
+            for (int wid : tokens) {
+                tokenStart[wid + 1]++;
+            }
+            numTokens += tokens.length;
+        }
+        for (int w = 0; w < vocabularySize; ++w) {
+            tokenStart[w + 1] += tokenStart[w];
+        }
+        this.occurrenceDoc = new int[numTokens];
+        this.occurrencePosition = new int[numTokens];
+        int[] next = tokenStart.clone();
+        for (int d = 0; d < tokensInDocuments.length; ++d) {
+            for (int i = 0; i < tokensInDocuments[d].length; ++i) {
+                int o = next[tokensInDocuments[d][i]]++;
+                occurrenceDoc[o] = d;
+                occurrencePosition[o] = i;
+            }
+        }
+        this.docTopics = new int[tokensInDocuments.length][];
+        for (int d = 0; d < tokensInDocuments.length; ++d) {
+            docTopics[d] = new int[Math.min(numberOfTopics, tokensInDocuments[d].length)];
+        }
+        this.docTopicsSize = new int[tokensInDocuments.length];
+        this.inverse = new double[numberOfTopics];
+        this.ones = new double[numberOfTopics];
+        Arrays.fill(ones, 1d);
+        this.tokenCounts = new double[numberOfTopics];
+        this.tokenTopics = new int[numberOfTopics];
+        this.tokenPosition = new int[numberOfTopics];
+        this.rowCounts = new int[numberOfTopics];
+    }
+
+    /**
+     * Replaces the priors, which take effect in the next sweep
+     *
+     * @param alpha - document-topic prior of each topic
+     * @param beta  - topic-word prior
+     */
+    void setPriors(double[] alpha, double beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.nBeta = vocabularySize * beta;
+    }
+
+    /**
+     * Re-samples topic assignments of all tokens in the corpus
+     *
+     * @param z  - topic assignments of each document, updated in place
+     * @param nd - document-topic counts, updated in place
+     */
+    void sweep(int[][] z, DocTopicCounts nd, Random random) {
+        int[] buffer = new int[numberOfTopics];
+        for (int d = 0; d < z.length; ++d) {
+            int[] ndRow = nd.row(d, buffer);
+            int size = 0;
+            for (int t = 0; t < numberOfTopics; ++t) {
+                if (ndRow[t] > 0) {
+                    docTopics[d][size++] = t;
+                }
+            }
+            docTopicsSize[d] = size;
+        }
+
+        for (int w = 0; w + 1 < tokenStart.length; ++w) {
+            if (tokenStart[w] == tokenStart[w + 1]) {
+                continue;
+            }
+            //smoothing and token buckets, recomputed for each token to avoid drift
+            double s = 0d;
+            for (int t = 0; t < numberOfTopics; ++t) {
+                inverse[t] = 1d / (nwSum[t] + nBeta);
+                s += alpha[t] * inverse[t];
+                tokenCounts[t] = 0d;
+            }
+            s *= beta;
+            nw.accumulate(w, ones, tokenCounts);
+            double q = 0d;
+            tokenTopicsSize = 0;
+            for (int t = 0; t < numberOfTopics; ++t) {
+                if (tokenCounts[t] > 0) {
+                    q += alpha[t] * tokenCounts[t] * inverse[t];
+                    tokenTopics[tokenTopicsSize] = t;
+                    tokenPosition[t] = tokenTopicsSize++;
+                }
+            }
+
+            for (int o = tokenStart[w]; o < tokenStart[w + 1]; ++o) {
+                int d = occurrenceDoc[o];
+                int i = occurrencePosition[o];
+                int topic = z[d][i];
+
+                //remove the current assignment
+                s -= alpha[topic] * beta * inverse[topic];
+                q -= alpha[topic] * tokenCounts[topic] * inverse[topic];
+                nwSum[topic]--;
+                if (--tokenCounts[topic] == 0) {
+                    removeTokenTopic(topic);
+                }
+                if (nd.add(d, topic, -1) == 0) {
+                    removeDocTopic(d, topic);
+                }
+                inverse[topic] = 1d / (nwSum[topic] + nBeta);
+                s += alpha[topic] * beta * inverse[topic];
+                q += alpha[topic] * tokenCounts[topic] * inverse[topic];
+
+                double b = 0d;
+                int[] topics = docTopics[d];
+                int size = docTopicsSize[d];
+                for (int j = 0; j < size; ++j) {
+                    int t = topics[j];
+                    b += nd.get(d, t) * (tokenCounts[t] + beta) * inverse[t];
+                }
+
+                double u = random.nextDouble() * (b + q + s);
+                if (u < b) {
+                    double sum = 0d;
+                    for (int j = 0; j < size; ++j) {
+                        topic = topics[j];
+                        sum += nd.get(d, topic) * (tokenCounts[topic] + beta) * inverse[topic];
+                        if (sum > u) {
+                            break;
+                        }
+                    }
+                } else if (u < b + q) {
+                    u -= b;
+                    double sum = 0d;
+                    for (int j = 0; j < tokenTopicsSize; ++j) {
+                        topic = tokenTopics[j];
+                        sum += alpha[topic] * tokenCounts[topic] * inverse[topic];
+                        if (sum > u) {
+                            break;
+                        }
+                    }
+                } else {
+                    u -= b + q;
+                    double sum = 0d;
+                    for (topic = 0; topic < numberOfTopics - 1; ++topic) {
+                        sum += alpha[topic] * beta * inverse[topic];
+                        if (sum > u) {
+                            break;
+                        }
+                    }
+                }
+
+                //add the new assignment
+                s -= alpha[topic] * beta * inverse[topic];
+                q -= alpha[topic] * tokenCounts[topic] * inverse[topic];
+                nwSum[topic]++;
+                if (tokenCounts[topic]++ == 0) {
+                    tokenTopics[tokenTopicsSize] = topic;
+                    tokenPosition[topic] = tokenTopicsSize++;
+                }
+                if (nd.add(d, topic, 1) == 1) {
+                    docTopics[d][docTopicsSize[d]++] = topic;
+                }
+                inverse[topic] = 1d / (nwSum[topic] + nBeta);
+                s += alpha[topic] * beta * inverse[topic];
+                q += alpha[topic] * tokenCounts[topic] * inverse[topic];
+                z[d][i] = topic;
+            }
+            //the row is only used by this token, so it is written back once all occurrences are sampled
+            for (int j = 0; j < tokenTopicsSize; ++j) {
+                rowCounts[j] = (int) tokenCounts[tokenTopics[j]];
+            }
+            nw.setRow(w, tokenTopics, rowCounts, tokenTopicsSize);
+        }
+    }
+
+    private void removeTokenTopic(int topic) {
+        int last = tokenTopics[--tokenTopicsSize];
+        tokenTopics[tokenPosition[topic]] = last;
+        tokenPosition[last] = tokenPosition[topic];
+    }
+
+    private void removeDocTopic(int d, int topic) {
+        int[] topics = docTopics[d];
+        int last = --docTopicsSize[d];
+        for (int j = 0; j <= last; ++j) {
+            if (topics[j] == topic) {
+                topics[j] = topics[last];
+                return;
+            }
+        }
+    }
+}
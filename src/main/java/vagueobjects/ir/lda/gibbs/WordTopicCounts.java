@@ -0,0 +1,68 @@
+package vagueobjects.ir.lda.gibbs;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Number of instances of each token assigned to each topic, as used by {@link SparseSweep}.
+ * Implementations keep only non-zero counts, and visit them from the largest to the smallest.
+ */
+interface WordTopicCounts {
+
+    int get(int w, int t);
+
+    void increment(int w, int t);
+
+    void decrement(int w, int t);
+
+    /**
+     * Replaces a row with given counts
+     *
+     * @param topics - keys of the row, in any order
+     * @param counts - positive values for each key
+     * @param size   - number of keys
+     */
+    void setRow(int w, int[] topics, int[] counts, int size);
+
+    /**
+     * Copies the non-zero counts of a row, in no particular order
+     *
+     * @param topics - receives keys of the row, of size <code>numberOfTopics</code> at least
+     * @param counts - receives values for each key, of the same size
+     * @return number of keys
+     */
+    int row(int w, int[] topics, int[] counts);
+
+    /**
+     * @return sum of <code>coefficients[t] * count(w, t)</code> over topics with non-zero counts
+     */
+    double weightedSum(int w, double[] coefficients);
+
+    /**
+     * Adds <code>coefficients[t] * count(w, t)</code> to <code>target[t]</code> for topics with non-zero counts
+     */
+    void accumulate(int w, double[] coefficients, double[] target);
+
+    /**
+     * Visits non-zero counts of a token from the largest to the smallest, accumulating
+     * <code>coefficients[t] * count(w, t)</code>, and stops once the sum exceeds <code>u</code>.
+     *
+     * @return topic visited last
+     */
+    int sample(int w, double[] coefficients, double u);
+}
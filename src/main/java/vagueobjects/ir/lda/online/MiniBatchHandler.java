@@ -0,0 +1,66 @@
+package vagueobjects.ir.lda.online;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import vagueobjects.ir.lda.tokens.SourceHandler;
+import vagueobjects.ir.lda.tokens.Words;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Feeds documents coming from a <code>Processor</code> into {@link OnlineLda} in mini-batches,
+ * so that the corpus never has to be held in memory. The vocabulary must be built beforehand,
+ * see {@link Words#buildVocabulary}.
+ */
+public class MiniBatchHandler implements SourceHandler {
+    private final Words vocabulary;
+    private final OnlineLda lda;
+    private final int batchSize;
+    private final Random random;
+    private final List<int[]> batch = new ArrayList<int[]>();
+
+    public MiniBatchHandler(Words vocabulary, OnlineLda lda, int batchSize, Random random) {
+        this.vocabulary = vocabulary;
+        this.lda = lda;
+        this.batchSize = batchSize;
+        this.random = random;
+    }
+
+    @Override
+    public void handle(String text) {
+        int[] ids = vocabulary.encode(text);
+        if (ids != null) {
+            batch.add(ids);
+            if (batch.size() == batchSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Sends remaining documents to the model; to be called once the processor is done.
+     */
+    public void flush() {
+        if (!batch.isEmpty()) {
+            lda.update(batch.toArray(new int[batch.size()][]), random);
+            batch.clear();
+        }
+    }
+}
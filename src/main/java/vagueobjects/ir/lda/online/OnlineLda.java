@@ -0,0 +1,334 @@
+package vagueobjects.ir.lda.online;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.commons.math.special.Gamma;
+import org.apache.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Online variational Bayes for LDA, as described in
+ * <a href="http://www.cs.princeton.edu/~blei/papers/HoffmanBleiBach2010b.pdf">Online Learning for Latent
+ * Dirichlet Allocation</a>. Documents are consumed in mini-batches: for each mini-batch, the local
+ * (document-topic) parameters are fitted, and the topic-word parameters <code>lambda</code> are moved towards
+ * the estimate implied by the mini-batch with a learning rate <code>(tau0 + t)^(-kappa)</code>.
+ * <p/>
+ * Memory used by {@link #update} depends on the number of topics, the vocabulary size and the size of a
+ * mini-batch only, so that a stream of documents may be processed in a single pass regardless of its size.
+ * {@link #execute} also keeps document-topic associations of the whole corpus, one row per document.
+ */
+public class OnlineLda {
+    private static Logger logger = Logger.getLogger(OnlineLda.class);
+    public static final double DEFAULT_TAU0 = 1024;
+    public static final double DEFAULT_KAPPA = 0.7;
+    public static final int MAX_LOCAL_ITERATIONS = 100;
+    public static final double LOCAL_CONVERGENCE_THRESHOLD = 1e-3;
+
+    private final int numberOfTopics;
+    private final int vocabularySize;
+    /**
+     * (Estimated) total number of documents in the corpus
+     */
+    private final int numberOfDocuments;
+    /**
+     * Delays early iterations
+     */
+    private final double tau0;
+    /**
+     * Forgetting rate, within (0.5, 1]
+     */
+    private final double kappa;
+    /**
+     * Document-topic association
+     */
+    private final double alpha;
+    /**
+     * Topic-term association
+     */
+    private final double eta;
+    /**
+     * Variational parameters of topic-word distributions
+     */
+    private final double[][] lambda;
+    private final double[] lambdaSum;
+    /**
+     * Index of each word among the distinct words of the current mini-batch, -1 between mini-batches
+     */
+    private final int[] batchIds;
+    /**
+     * Number of mini-batches seen so far
+     */
+    private int updateCount;
+    /**
+     * Document-topic associations of the latest mini-batch
+     */
+    private double[][] theta;
+
+    /**
+     * @param numberOfTopics    - number of topics to extract
+     * @param vocabularySize    - size of vocabulary used
+     * @param numberOfDocuments - total number of documents in the corpus, or its estimate for streams
+     * @param tau0              - delay of the learning rate
+     * @param kappa             - exponent of the learning rate decay
+     * @param random            - an instance of the <code>Random</code> class used for initialization
+     */
+    public OnlineLda(int numberOfTopics, int vocabularySize, int numberOfDocuments,
+                     double tau0, double kappa, Random random) {
+        if (kappa <= 0.5 || kappa > 1) {
+            throw new IllegalArgumentException("kappa must be within (0.5, 1]: " + kappa);
+        }
+        this.numberOfTopics = numberOfTopics;
+        this.vocabularySize = vocabularySize;
+        this.numberOfDocuments = numberOfDocuments;
+        this.tau0 = tau0;
+        this.kappa = kappa;
+        this.alpha = 1d / numberOfTopics;
+        this.eta = 1d / numberOfTopics;
+        this.lambda = new double[numberOfTopics][vocabularySize];
+        this.lambdaSum = new double[numberOfTopics];
+        this.batchIds = new int[vocabularySize];
+        Arrays.fill(batchIds, -1);
+        for (int k = 0; k < numberOfTopics; ++k) {
+            for (int w = 0; w < vocabularySize; ++w) {
+                lambda[k][w] = nextInitialValue(random);
+                lambdaSum[k] += lambda[k][w];
+            }
+        }
+    }
+
+    public OnlineLda(int numberOfTopics, int vocabularySize, int numberOfDocuments) {
+        this(numberOfTopics, vocabularySize, numberOfDocuments, DEFAULT_TAU0, DEFAULT_KAPPA, new Random());
+    }
+
+    /**
+     * Processes the whole corpus in a single pass, keeping document-topic associations of all documents
+     *
+     * @param tokensInDocuments - token IDs of each document
+     * @param batchSize         - number of documents in a mini-batch
+     * @param random            - an instance of the <code>Random</code> class used for simulation
+     */
+    public void execute(int[][] tokensInDocuments, int batchSize, Random random) {
+        double[][] allTheta = new double[tokensInDocuments.length][];
+        for (int from = 0; from < tokensInDocuments.length; from += batchSize) {
+            int to = Math.min(tokensInDocuments.length, from + batchSize);
+            update(Arrays.copyOfRange(tokensInDocuments, from, to), random);
+            System.arraycopy(theta, 0, allTheta, from, to - from);
+        }
+        theta = allTheta;
+        logger.info("Processed " + tokensInDocuments.length + " documents in " + updateCount + " mini-batches");
+    }
+
+    /**
+     * Updates the model with a mini-batch of documents
+     *
+     * @param miniBatch - token IDs of each document in the mini-batch
+     * @param random    - an instance of the <code>Random</code> class used for simulation
+     */
+    public void update(int[][] miniBatch, Random random) {
+        if (miniBatch.length == 0) {
+            throw new IllegalArgumentException("Empty mini-batch");
+        }
+        int batchSize = miniBatch.length;
+        //word IDs and counts of each document
+        int[][] ids = new int[batchSize][];
+        int[][] counts = new int[batchSize][];
+        int length = 0;
+        for (int d = 0; d < batchSize; ++d) {
+            compact(miniBatch[d], d, ids, counts);
+            length += ids[d].length;
+        }
+        //replace word IDs with their indexes among the distinct words of the mini-batch
+        int[] words = new int[length];
+        int numWords = 0;
+        for (int[] docIds : ids) {
+            for (int i = 0; i < docIds.length; ++i) {
+                int wid = docIds[i];
+                if (batchIds[wid] < 0) {
+                    batchIds[wid] = numWords;
+                    words[numWords++] = wid;
+                }
+                docIds[i] = batchIds[wid];
+            }
+        }
+        for (int j = 0; j < numWords; ++j) {
+            batchIds[words[j]] = -1;
+        }
+        //exp(E[log beta]) for words in this mini-batch only
+        double[][] expElogBeta = new double[numberOfTopics][numWords];
+        for (int k = 0; k < numberOfTopics; ++k) {
+            double psiSum = Gamma.digamma(lambdaSum[k]);
+            for (int j = 0; j < numWords; ++j) {
+                expElogBeta[k][j] = Math.exp(Gamma.digamma(lambda[k][words[j]]) - psiSum);
+            }
+        }
+
+        double[][] sstats = new double[numberOfTopics][numWords];
+        theta = new double[batchSize][];
+        double[] gamma = new double[numberOfTopics];
+        double[] lastGamma = new double[numberOfTopics];
+        double[] expElogTheta = new double[numberOfTopics];
+        for (int d = 0; d < batchSize; ++d) {
+            int[] docIds = ids[d];
+            int[] docCounts = counts[d];
+            double[] phiNorm = new double[docIds.length];
+            for (int k = 0; k < numberOfTopics; ++k) {
+                gamma[k] = nextInitialValue(random);
+            }
+            expElogTheta(gamma, expElogTheta);
+            for (int iteration = 0; iteration < MAX_LOCAL_ITERATIONS; ++iteration) {
+                System.arraycopy(gamma, 0, lastGamma, 0, numberOfTopics);
+                for (int i = 0; i < docIds.length; ++i) {
+                    double norm = 1e-100;
+                    for (int k = 0; k < numberOfTopics; ++k) {
+                        norm += expElogTheta[k] * expElogBeta[k][docIds[i]];
+                    }
+                    phiNorm[i] = norm;
+                }
+                double change = 0d;
+                for (int k = 0; k < numberOfTopics; ++k) {
+                    double sum = 0d;
+                    for (int i = 0; i < docIds.length; ++i) {
+                        sum += docCounts[i] / phiNorm[i] * expElogBeta[k][docIds[i]];
+                    }
+                    gamma[k] = alpha + expElogTheta[k] * sum;
+                    change += Math.abs(gamma[k] - lastGamma[k]);
+                }
+                expElogTheta(gamma, expElogTheta);
+                if (change / numberOfTopics < LOCAL_CONVERGENCE_THRESHOLD) {
+                    break;
+                }
+            }
+            for (int i = 0; i < docIds.length; ++i) {
+                double norm = 1e-100;
+                for (int k = 0; k < numberOfTopics; ++k) {
+                    norm += expElogTheta[k] * expElogBeta[k][docIds[i]];
+                }
+                for (int k = 0; k < numberOfTopics; ++k) {
+                    sstats[k][docIds[i]] += expElogTheta[k] * docCounts[i] / norm;
+                }
+            }
+            theta[d] = normalize(gamma);
+        }
+
+        double rho = Math.pow(tau0 + updateCount, -kappa);
+        double scale = (double) numberOfDocuments / batchSize;
+        for (int k = 0; k < numberOfTopics; ++k) {
+            //words outside of the mini-batch have no statistics, and move towards the prior only
+            double sum = 0d;
+            for (int w = 0; w < vocabularySize; ++w) {
+                lambda[k][w] = (1 - rho) * lambda[k][w] + rho * eta;
+                sum += lambda[k][w];
+            }
+            for (int j = 0; j < numWords; ++j) {
+                double delta = rho * scale * sstats[k][j] * expElogBeta[k][j];
+                lambda[k][words[j]] += delta;
+                sum += delta;
+            }
+            lambdaSum[k] = sum;
+        }
+        updateCount++;
+        logger.debug("Mini-batch #" + updateCount + ": " + batchSize + " documents, "
+                + numWords + " distinct words, rho=" + rho);
+    }
+
+    /**
+     * @return topic-token associations, i.e. the expected topic-word distributions
+     */
+    public double[][] getPhi() {
+        double[][] phi = new double[numberOfTopics][];
+        for (int k = 0; k < numberOfTopics; ++k) {
+            phi[k] = normalize(lambda[k]);
+        }
+        return phi;
+    }
+
+    /**
+     * @return document-topic associations of the documents seen in the latest call to
+     *         {@link #update} or {@link #execute}
+     */
+    public double[][] getTheta() {
+        return theta;
+    }
+
+    public int getNumberOfTopics() {
+        return numberOfTopics;
+    }
+
+    public int getVocabularySize() {
+        return vocabularySize;
+    }
+
+    /**
+     * Converts a document into parallel arrays of distinct word IDs and their counts
+     */
+    private void compact(int[] tokens, int d, int[][] ids, int[][] counts) {
+        int[] sorted = tokens.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (sorted[i] < 0 || sorted[i] >= vocabularySize) {
+                throw new IllegalArgumentException("Token " + sorted[i] + " in document #" + d
+                        + " is outside of vocabulary");
+            }
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        ids[d] = new int[distinct];
+        counts[d] = new int[distinct];
+        int j = -1;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                ids[d][++j] = sorted[i];
+            }
+            counts[d][j]++;
+        }
+    }
+
+    private static void expElogTheta(double[] gamma, double[] result) {
+        double sum = 0d;
+        for (double g : gamma) {
+            sum += g;
+        }
+        double psiSum = Gamma.digamma(sum);
+        for (int k = 0; k < gamma.length; ++k) {
+            result[k] = Math.exp(Gamma.digamma(gamma[k]) - psiSum);
+        }
+    }
+
+    private static double[] normalize(double[] values) {
+        double sum = 0d;
+        for (double v : values) {
+            sum += v;
+        }
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            result[i] = values[i] / sum;
+        }
+        return result;
+    }
+
+    /**
+     * Approximates a draw from Gamma(100, 1/100), which is close to N(1, 0.01)
+     */
+    private static double nextInitialValue(Random random) {
+        return Math.max(1e-3, 1d + 0.1 * random.nextGaussian());
+    }
+}
@@ -0,0 +1,158 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns consecutive IDs to distinct tokens. Tokens are looked up as slices of a <code>char[]</code>
+ * buffer, with open addressing, so that no <code>String</code> is created unless a token is added.
+ */
+class CharSliceMap {
+    private String[] keys = new String[64];
+    private int[] values = new int[64];
+    private final List<String> tokens = new ArrayList<String>();
+
+    /**
+     * @return ID of the token, or -1 if not in the map
+     */
+    int get(char[] buffer, int length) {
+        int mask = keys.length - 1;
+        for (int i = hash(buffer, length) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (matches(keys[i], buffer, length)) {
+                return values[i];
+            }
+        }
+        return -1;
+    }
+
+    boolean contains(char[] buffer, int length) {
+        return get(buffer, length) >= 0;
+    }
+
+    /**
+     * @return ID of the token, which is added if not in the map yet
+     */
+    int add(char[] buffer, int length) {
+        int mask = keys.length - 1;
+        int i = hash(buffer, length) & mask;
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (matches(keys[i], buffer, length)) {
+                return values[i];
+            }
+        }
+        int id = tokens.size();
+        String token = new String(buffer, 0, length);
+        tokens.add(token);
+        keys[i] = token;
+        values[i] = id;
+        if (2 * tokens.size() > keys.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    int get(String token) {
+        int mask = keys.length - 1;
+        for (int i = hash(token) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(token)) {
+                return values[i];
+            }
+        }
+        return -1;
+    }
+
+    int add(String token) {
+        int mask = keys.length - 1;
+        int i = hash(token) & mask;
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(token)) {
+                return values[i];
+            }
+        }
+        int id = tokens.size();
+        tokens.add(token);
+        keys[i] = token;
+        values[i] = id;
+        if (2 * tokens.size() > keys.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    String getToken(int id) {
+        return tokens.get(id);
+    }
+
+    int size() {
+        return tokens.size();
+    }
+
+    /**
+     * Removes all tokens, keeping the table at its current capacity
+     */
+    void clear() {
+        Arrays.fill(keys, null);
+        tokens.clear();
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[2 * oldKeys.length];
+        values = new int[2 * oldKeys.length];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldKeys[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    static boolean matches(String key, char[] buffer, int length) {
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (key.charAt(i) != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(char[] buffer, int length) {
+        int h = 0;
+        for (int i = 0; i < length; ++i) {
+            h = 31 * h + buffer[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,124 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.Arrays;
+
+/**
+ * Counts, for each token, the number of documents it occurs in, with documents added from several threads at
+ * once. Counters are primitive and spread over shards, each guarded by a lock of its own. A token is looked up
+ * once per caller, which receives a slot to keep in its own dictionary; documents are then counted as arrays of
+ * slots, locking each shard once per document.
+ */
+class ConcurrentDocFrequencies {
+    public static final int DEFAULT_SHARDS = 64;
+    private final Shard[] shards;
+    private final int shardBits;
+    /**
+     * Slots hold the shard in their upper bits, and the token's index within the shard in the lower ones
+     */
+    private final int indexBits;
+
+    /**
+     * @param numberOfShards - number of independently locked shards, rounded up to a power of two
+     */
+    ConcurrentDocFrequencies(int numberOfShards) {
+        int bits = 0;
+        while ((1 << bits) < numberOfShards) {
+            bits++;
+        }
+        this.shardBits = bits;
+        this.indexBits = 31 - bits;
+        this.shards = new Shard[1 << bits];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * @return slot of the token, which is added with no documents if not counted yet
+     */
+    int slot(String token) {
+        int shardIndex = shardOf(CharSliceMap.hash(token));
+        Shard shard = shards[shardIndex];
+        synchronized (shard) {
+            int index = shard.ids.add(token);
+            if (index >> indexBits != 0) {
+                throw new IllegalStateException("Too many tokens in a shard: " + index);
+            }
+            if (index == shard.counts.length) {
+                shard.counts = Arrays.copyOf(shard.counts, 2 * index);
+            }
+            return (shardIndex << indexBits) | index;
+        }
+    }
+
+    /**
+     * Counts a document
+     *
+     * @param slots - slots of the distinct tokens of the document; they are sorted in place
+     * @param size  - number of slots
+     */
+    void addDocument(int[] slots, int size) {
+        Arrays.sort(slots, 0, size);
+        int from = 0;
+        while (from < size) {
+            int shardIndex = slots[from] >>> indexBits;
+            int mask = (1 << indexBits) - 1;
+            Shard shard = shards[shardIndex];
+            synchronized (shard) {
+                for (; from < size && slots[from] >>> indexBits == shardIndex; ++from) {
+                    shard.counts[slots[from] & mask]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of documents the token occurs in
+     */
+    int get(String token) {
+        Shard shard = shards[shardOf(CharSliceMap.hash(token))];
+        synchronized (shard) {
+            int index = shard.ids.get(token);
+            return index < 0 ? 0 : shard.counts[index];
+        }
+    }
+
+    /**
+     * @return number of distinct tokens
+     */
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.ids.size();
+            }
+        }
+        return size;
+    }
+
+    private int shardOf(int hash) {
+        return shardBits == 0 ? 0 : (hash * 0x9E3779B9) >>> (32 - shardBits);
+    }
+
+    private static class Shard {
+        final CharSliceMap ids = new CharSliceMap();
+        int[] counts = new int[64];
+    }
+}
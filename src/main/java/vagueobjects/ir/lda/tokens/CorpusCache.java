@@ -0,0 +1,250 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps encoded documents and their vocabulary on disk, so that later runs over the same source with the same
+ * settings skip reading and tokenizing it. Each corpus is a file named after a fingerprint of the source and of
+ * the settings of <code>Words</code>; its token IDs are memory-mapped when read back. The file holds a header,
+ * document offsets, token IDs, and the sorted vocabulary:
+ * <pre>
+ * int magic, int version, int numberOfDocuments, int vocabularySize, long numberOfTokens, long vocabularyPosition
+ * int[numberOfDocuments + 1] offsets
+ * int[numberOfTokens] token IDs
+ * UTF[vocabularySize] tokens
+ * </pre>
+ */
+public class CorpusCache {
+    private static Logger logger = Logger.getLogger(CorpusCache.class);
+    static final int MAGIC = 0x4c444163;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    /**
+     * Largest number of token IDs mapped at once
+     */
+    private static final int MAX_CHUNK_INTS = 1 << 28;
+    private final File directory;
+
+    /**
+     * @param directory - directory holding cached corpora, created if needed
+     */
+    public CorpusCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Encodes documents supplied by the processor, unless a corpus with the same fingerprint is cached; the
+     * vocabulary of the cached corpus is then restored into <code>words</code>.
+     *
+     * @param source - source file of the documents, whose path, size and modification time enter the fingerprint
+     * @return token IDs of each document
+     */
+    public int[][] processDocuments(Processor processor, Words words, File source) {
+        String fingerprint = fingerprint(source.getAbsolutePath() + ";" + source.length() + ";"
+                + source.lastModified(), words);
+        return processDocuments(processor, words, fingerprint);
+    }
+
+    /**
+     * Documents encoded with a hashed vocabulary are neither stored nor loaded, as there is no vocabulary
+     * selected from them to restore
+     *
+     * @param fingerprint - key of the corpus, see {@link #fingerprint}
+     */
+    public int[][] processDocuments(Processor processor, Words words, String fingerprint) {
+        if (words.isHashed()) {
+            return words.processDocuments(processor);
+        }
+        File file = getFile(fingerprint);
+        try {
+            if (file.exists()) {
+                long start = System.currentTimeMillis();
+                int[][] documents = load(file, words);
+                logger.info("Loaded " + documents.length + " documents from " + file + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                return documents;
+            }
+            int[][] documents = words.processDocuments(processor);
+            store(file, documents, words);
+            logger.info("Stored " + documents.length + " documents in " + file);
+            return documents;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param source - description of the source of documents
+     * @return key of the corpus made from the source with the settings of <code>words</code>
+     */
+    public static String fingerprint(String source, Words words) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((source + "|" + words.getSettings() + "|" + VERSION).getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    File getFile(String fingerprint) {
+        return new File(directory, fingerprint + ".corpus");
+    }
+
+    /**
+     * Writes to a temporary file first, so that an interrupted run leaves no partial corpus behind
+     */
+    void store(File file, int[][] documents, Words words) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        long numberOfTokens = 0;
+        for (int[] document : documents) {
+            numberOfTokens += document.length;
+        }
+        if (numberOfTokens > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many tokens to cache: " + numberOfTokens);
+        }
+        File temporary = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(documents.length);
+            out.writeInt(words.size());
+            out.writeLong(numberOfTokens);
+            out.writeLong(HEADER_BYTES + 4L * (documents.length + 1) + 4L * numberOfTokens);
+            int offset = 0;
+            out.writeInt(offset);
+            for (int[] document : documents) {
+                offset += document.length;
+                out.writeInt(offset);
+            }
+            for (int[] document : documents) {
+                for (int id : document) {
+                    out.writeInt(id);
+                }
+            }
+            for (int i = 0; i < words.size(); ++i) {
+                out.writeUTF(words.getToken(i));
+            }
+            //closed here, so that an error flushing the last bytes is not mistaken for a complete file
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                IOUtils.closeQuietly(out);
+                if (!temporary.delete()) {
+                    logger.warn("Cannot delete " + temporary);
+                }
+            }
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Cannot rename " + temporary + " to " + file);
+        }
+    }
+
+    int[][] load(File file, Words words) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (randomAccessFile.readInt() != MAGIC || randomAccessFile.readInt() != VERSION) {
+                throw new IOException("Not a corpus of version " + VERSION + ": " + file);
+            }
+            int numberOfDocuments = randomAccessFile.readInt();
+            int vocabularySize = randomAccessFile.readInt();
+            long numberOfTokens = randomAccessFile.readLong();
+            long vocabularyPosition = randomAccessFile.readLong();
+
+            IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    4L * (numberOfDocuments + 1)).asIntBuffer();
+            long tokensPosition = HEADER_BYTES + 4L * (numberOfDocuments + 1);
+            List<IntBuffer> chunks = new ArrayList<IntBuffer>();
+            for (long from = 0; from < numberOfTokens; from += MAX_CHUNK_INTS) {
+                long size = Math.min(MAX_CHUNK_INTS, numberOfTokens - from);
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, tokensPosition + 4 * from, 4 * size)
+                        .asIntBuffer());
+            }
+
+            int[][] documents = new int[numberOfDocuments][];
+            for (int d = 0; d < numberOfDocuments; ++d) {
+                int from = offsets.get(d);
+                documents[d] = new int[offsets.get(d + 1) - from];
+                read(chunks, from, documents[d]);
+            }
+
+            FileInputStream fis = new FileInputStream(file);
+            List<String> vocabulary = new ArrayList<String>(vocabularySize);
+            try {
+                fis.getChannel().position(vocabularyPosition);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(fis, 1 << 16));
+                for (int i = 0; i < vocabularySize; ++i) {
+                    vocabulary.add(in.readUTF());
+                }
+            } finally {
+                IOUtils.closeQuietly(fis);
+            }
+            words.restoreVocabulary(vocabulary);
+            return documents;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Bulk copy of token IDs starting at the given position, which may span chunks
+     */
+    private static void read(List<IntBuffer> chunks, int position, int[] destination) {
+        int copied = 0;
+        while (copied < destination.length) {
+            int chunk = (position + copied) / MAX_CHUNK_INTS;
+            int offset = (position + copied) % MAX_CHUNK_INTS;
+            IntBuffer buffer = chunks.get(chunk).duplicate();
+            buffer.position(offset);
+            int length = Math.min(destination.length - copied, buffer.remaining());
+            buffer.get(destination, copied, length);
+            copied += length;
+        }
+    }
+}
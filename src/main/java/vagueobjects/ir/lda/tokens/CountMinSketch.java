@@ -0,0 +1,113 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.Random;
+
+/**
+ * Count-Min sketch of token counts: <code>depth</code> rows of <code>width</code> counters, each row indexed by
+ * a hash function of its own. Row hashes are derived from a 64-bit hash of the token's characters, so that
+ * tokens sharing a <code>hashCode</code> do not collide in all rows. An estimate never falls below the true count, and exceeds it by at most
+ * <code>e/width</code> times the total of all counts with probability at least <code>1 - exp(-depth)</code>.
+ */
+class CountMinSketch {
+    private final int width;
+    private final int[][] counters;
+    /**
+     * Seed of the hash function of each row
+     */
+    private final long[] seeds;
+    private long total;
+
+    CountMinSketch(int width, int depth, long seed) {
+        if (width < 1 || depth < 1) {
+            throw new IllegalArgumentException("Width and depth must be positive: " + width + ", " + depth);
+        }
+        this.width = width;
+        this.counters = new int[depth][width];
+        this.seeds = new long[depth];
+        Random random = new Random(seed);
+        for (int i = 0; i < depth; ++i) {
+            seeds[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * @param hash - hash of the token, as returned by {@link #hash}
+     */
+    void add(long hash) {
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i][index(i, hash)]++;
+        }
+        total++;
+    }
+
+    /**
+     * @return upper estimate of the count of the token
+     */
+    int estimate(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < counters.length; ++i) {
+            estimate = Math.min(estimate, counters[i][index(i, hash)]);
+        }
+        return estimate;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return amount by which an estimate exceeds the true count, with probability {@link #getConfidence()}
+     */
+    long getErrorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    double getConfidence() {
+        return 1 - Math.exp(-counters.length);
+    }
+
+    /**
+     * @return 64-bit FNV-1a hash of the characters
+     */
+    static long hash(char[] buffer, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; ++i) {
+            h = (h ^ buffer[i]) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    static long hash(String token) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < token.length(); ++i) {
+            h = (h ^ token.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private int index(int row, long hash) {
+        //finalizer of MurmurHash3, a bijection, so that distinct hashes stay distinct before the modulo
+        long x = hash ^ seeds[row];
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return (int) ((x >>> 1) % width);
+    }
+}
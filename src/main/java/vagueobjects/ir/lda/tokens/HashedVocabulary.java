@@ -0,0 +1,97 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Vocabulary of <code>2^bits</code> buckets to which tokens are hashed, with no passes over documents and
+ * no dictionary: distinct tokens may share an ID. A few of the tokens seen in each bucket are kept, so that
+ * IDs can still be shown as words.
+ */
+class HashedVocabulary {
+    private final int bits;
+    private final int samplesPerBucket;
+    /**
+     * Tokens kept for each bucket, allocated once the first token lands in the bucket
+     */
+    private final String[][] samples;
+    private final int[] numberOfSamples;
+
+    /**
+     * @param bits             - number of bits of IDs, from 1 to 30
+     * @param samplesPerBucket - number of tokens kept per bucket, first come, for display; may be 0
+     */
+    HashedVocabulary(int bits, int samplesPerBucket) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("Number of bits must be between 1 and 30: " + bits);
+        }
+        this.bits = bits;
+        this.samplesPerBucket = samplesPerBucket;
+        this.samples = samplesPerBucket > 0 ? new String[1 << bits][] : null;
+        this.numberOfSamples = samplesPerBucket > 0 ? new int[1 << bits] : null;
+    }
+
+    /**
+     * @return ID of the token, or -1 for tokens of a single character
+     */
+    int id(char[] buffer, int length) {
+        if (length <= 1) {
+            return -1;
+        }
+        int id = (CharSliceMap.hash(buffer, length) * 0x9E3779B9) >>> (32 - bits);
+        if (samples != null && numberOfSamples[id] < samplesPerBucket) {
+            sample(id, buffer, length);
+        }
+        return id;
+    }
+
+    private synchronized void sample(int id, char[] buffer, int length) {
+        String[] bucket = samples[id];
+        if (bucket == null) {
+            bucket = samples[id] = new String[samplesPerBucket];
+        }
+        int n = numberOfSamples[id];
+        for (int i = 0; i < n; ++i) {
+            if (CharSliceMap.matches(bucket[i], buffer, length)) {
+                return;
+            }
+        }
+        if (n < bucket.length) {
+            bucket[n] = new String(buffer, 0, length);
+            numberOfSamples[id] = n + 1;
+        }
+    }
+
+    /**
+     * @return tokens kept for the ID, separated by slashes, or the ID itself if none were kept
+     */
+    synchronized String getToken(int id) {
+        if (samples == null || numberOfSamples[id] == 0) {
+            return "#" + id;
+        }
+        StringBuilder sb = new StringBuilder(samples[id][0]);
+        for (int i = 1; i < numberOfSamples[id]; ++i) {
+            sb.append('/').append(samples[id][i]);
+        }
+        return sb.toString();
+    }
+
+    int size() {
+        return 1 << bits;
+    }
+}
@@ -0,0 +1,126 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Supplies records of a UTF-8 text file, one document per record, by memory-mapping the file rather than
+ * reading it. Records are separated by a delimiter byte, a new line by default, in which case a preceding
+ * carriage return is dropped as well; empty records are skipped. Files larger than a mapping window are
+ * mapped one window at a time, each starting at a record boundary.
+ */
+public class MappedFileProcessor implements Utf8Processor {
+    static final int DEFAULT_WINDOW = 1 << 30;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final File file;
+    private final byte delimiter;
+    private final int window;
+
+    public MappedFileProcessor(File file) {
+        this(file, (byte) '\n');
+    }
+
+    public MappedFileProcessor(File file, byte delimiter) {
+        this(file, delimiter, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window - largest number of bytes mapped at once, and so the largest size of a record
+     */
+    MappedFileProcessor(File file, byte delimiter, int window) {
+        this.file = file;
+        this.delimiter = delimiter;
+        this.window = window;
+    }
+
+    @Override
+    public void process(Utf8Handler handler) {
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                int length = (int) Math.min(window, size - start);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                int recordStart = 0;
+                for (int i = 0; i < length; ++i) {
+                    if (buffer.get(i) == delimiter) {
+                        handle(buffer, recordStart, i, handler);
+                        recordStart = i + 1;
+                    }
+                }
+                if (start + length == size) {
+                    handle(buffer, recordStart, length, handler);
+                    recordStart = length;
+                } else if (recordStart == 0) {
+                    throw new IllegalStateException("Record at " + start + " is longer than " + window + " bytes");
+                }
+                start += recordStart;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    //nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes each record into a string
+     */
+    @Override
+    public void process(final SourceHandler handler) {
+        process(new Utf8Handler() {
+            private byte[] bytes = new byte[1024];
+
+            @Override
+            public void handle(ByteBuffer buffer, int offset, int length) {
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, 2 * bytes.length)];
+                }
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset);
+                view.get(bytes, 0, length);
+                handler.handle(new String(bytes, 0, length, UTF_8));
+            }
+        });
+    }
+
+    private void handle(ByteBuffer buffer, int from, int to, Utf8Handler handler) {
+        if (delimiter == '\n' && to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        if (to > from) {
+            handler.handle(buffer, from, to - from);
+        }
+    }
+}
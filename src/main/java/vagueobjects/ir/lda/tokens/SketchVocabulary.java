@@ -0,0 +1,152 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.List;
+
+/**
+ * Selects the vocabulary in fixed memory, in two passes over the documents. The first pass feeds distinct tokens
+ * of each document to a Count-Min sketch and to a Space-Saving summary; the second computes TF-IDF scores of the
+ * tokens monitored by the summary, with document frequencies taken as the smaller of the two overestimates.
+ * Tokens are passed on to a <code>TokenExtractor</code>, which applies its usual cut-offs.
+ */
+class SketchVocabulary {
+    private final TokenExtractor extractor;
+    private final CountMinSketch sketch;
+    private final SpaceSaving heavyHitters;
+    private final Tokenizer tokenizer = new Tokenizer();
+    private final CharSliceMap documentTokens = new CharSliceMap();
+    private int docCount;
+    /**
+     * Candidates of the second pass and their estimated document frequencies
+     */
+    private CharSliceMap candidates;
+    private int[] docFrequencies;
+    private int[] termFrequencies;
+    private int[] touched;
+    private int numberOfTouched;
+
+    private final Tokenizer.Handler distinctTokens = new Tokenizer.Handler() {
+        @Override
+        public void token(char[] buffer, int length) {
+            if (length <= 1) {
+                return;
+            }
+            int known = documentTokens.size();
+            if (documentTokens.add(buffer, length) == known) {
+                sketch.add(CountMinSketch.hash(buffer, length));
+                heavyHitters.add(documentTokens.getToken(known));
+            }
+        }
+    };
+
+    private final Tokenizer.Handler candidateTokens = new Tokenizer.Handler() {
+        @Override
+        public void token(char[] buffer, int length) {
+            int id = candidates.get(buffer, length);
+            if (id >= 0) {
+                if (termFrequencies[id]++ == 0) {
+                    touched[numberOfTouched++] = id;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param width      - counters per row of the sketch
+     * @param depth      - rows of the sketch
+     * @param candidates - number of tokens monitored by the Space-Saving summary
+     */
+    SketchVocabulary(TokenExtractor extractor, int width, int depth, int candidates) {
+        this.extractor = extractor;
+        this.sketch = new CountMinSketch(width, depth, 31L);
+        this.heavyHitters = new SpaceSaving(candidates);
+    }
+
+    /**
+     * First pass: counts distinct tokens of a document
+     */
+    void addToDocFrequencies(CharSequence document) {
+        if (candidates != null) {
+            throw new IllegalStateException("Document frequencies are final once TF-IDF scores are computed");
+        }
+        documentTokens.clear();
+        tokenizer.tokenize(document, distinctTokens);
+        docCount++;
+    }
+
+    /**
+     * Second pass: scores candidate tokens of a document
+     */
+    void addToTfIdf(CharSequence document) {
+        if (candidates == null) {
+            selectCandidates();
+        }
+        numberOfTouched = 0;
+        tokenizer.tokenize(document, candidateTokens);
+        for (int i = 0; i < numberOfTouched; ++i) {
+            int id = touched[i];
+            extractor.addToTfIdf(candidates.getToken(id), termFrequencies[id], docFrequencies[id]);
+            termFrequencies[id] = 0;
+        }
+    }
+
+    private void selectCandidates() {
+        List<SpaceSaving.Entry> entries = heavyHitters.getEntries();
+        candidates = new CharSliceMap();
+        docFrequencies = new int[entries.size()];
+        for (SpaceSaving.Entry entry : entries) {
+            int id = candidates.add(entry.token);
+            docFrequencies[id] = Math.min(entry.count, sketch.estimate(CountMinSketch.hash(entry.token)));
+        }
+        termFrequencies = new int[entries.size()];
+        touched = new int[entries.size()];
+        extractor.docCount = docCount;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    /**
+     * @return amount by which estimated document frequencies may exceed true ones, with probability
+     * {@link #getConfidence()}
+     */
+    long getDocFrequencyErrorBound() {
+        return Math.min(sketch.getErrorBound(), heavyHitters.getErrorBound());
+    }
+
+    double getConfidence() {
+        return heavyHitters.getErrorBound() <= sketch.getErrorBound() ? 1.0 : sketch.getConfidence();
+    }
+
+    /**
+     * @return document frequency above which a token is certain to be a candidate
+     */
+    long getCandidateThreshold() {
+        return heavyHitters.getErrorBound();
+    }
+
+    String describeErrorBounds() {
+        return String.format("Approximate vocabulary from %d documents, %d token occurrences: document frequencies "
+                + "overestimated by at most %d with probability %.4f (sketch bound %d, Space-Saving bound %d); "
+                + "tokens in more than %d documents are always candidates",
+                docCount, sketch.getTotal(), getDocFrequencyErrorBound(), getConfidence(),
+                sketch.getErrorBound(), heavyHitters.getErrorBound(), getCandidateThreshold());
+    }
+}
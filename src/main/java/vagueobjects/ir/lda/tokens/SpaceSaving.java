@@ -0,0 +1,135 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving summary of the most frequent tokens of a stream, monitoring a fixed number of them. An unmonitored
+ * token replaces the one with the smallest count and inherits that count as its error. Each count exceeds the true
+ * one by at most its error, which never exceeds <code>total / capacity</code>, and every token occurring more often
+ * than that is monitored. Monitored tokens are kept in a binary min-heap by count.
+ */
+class SpaceSaving {
+    private final Entry[] heap;
+    private int size;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private long total;
+
+    SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.heap = new Entry[capacity];
+    }
+
+    void add(String token) {
+        total++;
+        Entry entry = entries.get(token);
+        if (entry != null) {
+            entry.count++;
+            siftDown(entry.index);
+        } else if (size < heap.length) {
+            entry = new Entry(token);
+            entry.count = 1;
+            entry.index = size;
+            heap[size++] = entry;
+            entries.put(token, entry);
+            siftUp(entry.index);
+        } else {
+            entry = heap[0];
+            entries.remove(entry.token);
+            entry.token = token;
+            entry.error = entry.count;
+            entry.count++;
+            entries.put(token, entry);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return monitored tokens, in no particular order
+     */
+    List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; ++i) {
+            result.add(heap[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return largest amount by which a count may exceed the true count of its token
+     */
+    long getErrorBound() {
+        return size < heap.length ? 0 : heap[0].count;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    private void siftUp(int i) {
+        Entry entry = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].count <= entry.count) {
+                break;
+            }
+            move(heap[parent], i);
+            i = parent;
+        }
+        move(entry, i);
+    }
+
+    private void siftDown(int i) {
+        Entry entry = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (entry.count <= heap[child].count) {
+                break;
+            }
+            move(heap[child], i);
+            i = child;
+        }
+        move(entry, i);
+    }
+
+    private void move(Entry entry, int i) {
+        heap[i] = entry;
+        entry.index = i;
+    }
+
+    static class Entry {
+        String token;
+        int count;
+        int error;
+        private int index;
+
+        Entry(String token) {
+            this.token = token;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Assigns IDs to distinct tokens in order of appearance, so that documents may be kept as compact
+ * arrays of IDs rather than lists of strings, and counts the number of documents each token belongs to.
+ * A <code>String</code> is only created for the first occurrence of a token.
+ */
+class TokenDictionary {
+    private final CharSliceMap ids = new CharSliceMap();
+    private final Tokenizer tokenizer = new Tokenizer();
+    private int[] docFrequencies = new int[1024];
+    /**
+     * Index of the last document each token was seen in
+     */
+    private int[] lastDocs = new int[1024];
+    private int docCount;
+
+    private int[] document = new int[256];
+    private int documentSize;
+    private final Tokenizer.Handler handler = new Tokenizer.Handler() {
+        @Override
+        public void token(char[] buffer, int length) {
+            int id = ids.add(buffer, length);
+            ensureCapacity(id);
+            if (documentSize == document.length) {
+                document = Arrays.copyOf(document, 2 * documentSize);
+            }
+            document[documentSize++] = id;
+        }
+    };
+
+    /**
+     * Tokenizes a document and maps its tokens to their IDs, adding new tokens to the dictionary
+     *
+     * @return token IDs, in the order of tokens
+     */
+    int[] add(CharSequence text) {
+        documentSize = 0;
+        tokenizer.tokenize(text, handler);
+        return completeDocument();
+    }
+
+    /**
+     * Same as {@link #add(CharSequence)}, for a document of UTF-8 bytes
+     */
+    int[] add(ByteBuffer text, int offset, int length) {
+        documentSize = 0;
+        tokenizer.tokenize(text, offset, length, handler);
+        return completeDocument();
+    }
+
+    private int[] completeDocument() {
+        int[] result = Arrays.copyOf(document, documentSize);
+        addDocument(result);
+        return result;
+    }
+
+    /**
+     * @return ID of the token, which is added if not in the dictionary yet
+     */
+    int idOf(String token) {
+        int id = ids.add(token);
+        ensureCapacity(id);
+        return id;
+    }
+
+    /**
+     * Counts a document whose tokens have been mapped to IDs already
+     */
+    void addDocument(int[] document) {
+        ++docCount;
+        for (int id : document) {
+            if (lastDocs[id] != docCount) {
+                lastDocs[id] = docCount;
+                docFrequencies[id]++;
+            }
+        }
+    }
+
+    /**
+     * Takes document frequencies of all tokens from ones counted elsewhere, instead of counting documents
+     * with {@link #addDocument}
+     */
+    void setDocFrequencies(ConcurrentDocFrequencies frequencies, int docCount) {
+        for (int id = 0; id < ids.size(); ++id) {
+            docFrequencies[id] = frequencies.get(ids.getToken(id));
+        }
+        this.docCount = docCount;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id == docFrequencies.length) {
+            docFrequencies = Arrays.copyOf(docFrequencies, 2 * id);
+            lastDocs = Arrays.copyOf(lastDocs, 2 * id);
+        }
+    }
+
+    String getToken(int id) {
+        return ids.getToken(id);
+    }
+
+    /**
+     * @return number of documents the token belongs to
+     */
+    int getDocFrequency(int id) {
+        return docFrequencies[id];
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    int size() {
+        return ids.size();
+    }
+}
@@ -17,7 +17,6 @@ package vagueobjects.ir.lda.tokens;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-import java.text.BreakIterator;
 import java.util.*;
 
 /**
@@ -34,141 +33,75 @@ class TokenExtractor {
             "we", "my", "me", "our", "your", "what", "you", "so", "use", "has", "when");
 
 
-    final BoundedSet set;
+    /**
+     * Best scored tokens, as IDs of <code>words</code>
+     */
+    final TopK set;
+    final CharSliceMap words = new CharSliceMap();
     int docCount = 0;
     /**
      * Terms with document frequency under this limit are ignored
      */
     final int minimalDocFrequency;
-    //Token mapped to number of documents it belongs to
-    final CountingMap docFreqMap = new CountingMap();
 
     public TokenExtractor(int cutOff) {
-        this.set = new BoundedSet(cutOff);
+        this.set = new WordTopK(cutOff);
         this.minimalDocFrequency = 3;
 
     }
 
     public TokenExtractor(int cutOff, int minimalDocFrequency) {
-        this.set = new BoundedSet(cutOff);
+        this.set = new WordTopK(cutOff);
         this.minimalDocFrequency = minimalDocFrequency;
 
     }
 
     /**
-     * Collects token frequencies.
-     *
-     * @param document - token source
-     */
-    public void addTokensToFreqMap(String document) {
-        for (String s : new HashSet<String>(extractTokens(document))) {
-            if (s.length() > 1) {
-                docFreqMap.update(s);
-            }
-        }
-        ++docCount;
-    }
-
-    /**
-     * Builds TF-IDF map
+     * Adds the score of a token in a document to TF-IDF map
      *
-     * @param document - token source
+     * @param termFrequency - number of occurrences of the token in the document
+     * @param docFrequency  - number of documents the token belongs to
      */
-    void addToTfIdf(String document) {
-        CountingMap termFreq = new CountingMap();
-
-        for (String s : extractTokens(document)) {
-            if (s.length() > 1) {
-                termFreq.update(s);
-            }
+    void addToTfIdf(String token, int termFrequency, int docFrequency) {
+        if (token.length() <= 1 || docFrequency < minimalDocFrequency) {
+            return;
         }
-
-        for (Map.Entry<String, Integer> entry : termFreq.entrySet()) {
-            String token = entry.getKey();
-            if (termFreq.containsKey(token)) {
-                int df = docFreqMap.get(token);
-                if (df < minimalDocFrequency) {
-                    continue;
-                }
-                float f = (float) docCount / docFreqMap.get(token);
-                float tfIdf = (float) ((float) termFreq.get(token) * Math.log(f));
-                set.add(new Token(token, tfIdf));
-            }
-
+        float f = (float) docCount / docFrequency;
+        float tfIdf = (float) ((float) termFrequency * Math.log(f));
+        if (set.accepts(tfIdf)) {
+            set.offer(words.add(token), tfIdf);
         }
     }
 
 
-    static class BoundedSet extends TreeSet<Token> {
-        int bound;
-
-        BoundedSet(int bound) {
-            this.bound = bound;
+    /**
+     * Orders tokens of equal scores alphabetically
+     */
+    private class WordTopK extends TopK {
+        WordTopK(int k) {
+            super(k);
         }
 
         @Override
-        public boolean add(Token token) {
-            boolean added = super.add(token);
-            if (size() > bound) {
-                Token last = last();
-                remove(last);
-            }
-            return added;
-        }
-    }
-
-
-    static class CountingMap extends HashMap<String, Integer> {
-        void update(String s) {
-            if (containsKey(s)) {
-                int count = get(s);
-                put(s, count + 1);
-            } else {
-                put(s, 1);
-            }
+        protected int compareTies(int id1, int id2) {
+            return words.getToken(id1).compareTo(words.getToken(id2));
         }
     }
 
     void addToVocabulary(Collection<String> collection) {
-        for (Token token : set) {
-            collection.add(token.word);
+        for (int id : set.getIds()) {
+            collection.add(words.getToken(id));
         }
     }
 
-    static List<String> extractTokens(String document) {
-
-        BreakIterator iterator = BreakIterator.getWordInstance();
-        iterator.setText(document);
-        ArrayList<String> result = new ArrayList<String>();
-        int start = iterator.first();
-        for (int end = iterator.next(); end != BreakIterator.DONE;
-             start = end, end = iterator.next()) {
-            String s = document.substring(start, end).toLowerCase().replaceAll("[^a-z]", "");
-            if (!ENGLISH_STOP_WORDS.contains(s)) {
-                result.add(s);
+    static List<String> extractTokens(CharSequence document) {
+        final ArrayList<String> result = new ArrayList<String>();
+        new Tokenizer().tokenize(document, new Tokenizer.Handler() {
+            @Override
+            public void token(char[] buffer, int length) {
+                result.add(new String(buffer, 0, length));
             }
-        }
-
+        });
         return result;
-
-    }
-
-
-    static class Token implements Comparable<Token> {
-        final String word;
-        final float tfIdf;
-
-        Token(String word, float tfIdf) {
-            this.word = word;
-            this.tfIdf = tfIdf;
-        }
-
-        @Override
-        public int compareTo(Token o) {
-            if (o.tfIdf == tfIdf) {
-                return word.compareTo(o.word);
-            }
-            return (tfIdf < o.tfIdf) ? 1 : -1;
-        }
     }
 }
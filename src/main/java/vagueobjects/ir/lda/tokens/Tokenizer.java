@@ -0,0 +1,147 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.nio.ByteBuffer;
+
+/**
+ * Splits text into tokens in a single pass over its characters. A token is a run of letters, digits and
+ * apostrophes; it is folded to lower case and keeps letters <code>a-z</code> only. Empty tokens and stop
+ * words are dropped. Tokens are handed out as a slice of a buffer that is reused for the next token, so
+ * no object is created per token.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+class Tokenizer {
+    /**
+     * Changes whenever the same text may be split into different tokens
+     */
+    static final int VERSION = 1;
+    private static final char REPLACEMENT = '\uFFFD';
+    static final CharSliceMap STOP_WORDS = new CharSliceMap();
+
+    static {
+        for (String stopWord : TokenExtractor.ENGLISH_STOP_WORDS) {
+            STOP_WORDS.add(stopWord);
+        }
+    }
+
+    interface Handler {
+        /**
+         * @param buffer - characters of the token, valid until this method returns
+         * @param length - number of characters of the token
+         */
+        void token(char[] buffer, int length);
+    }
+
+    private char[] buffer = new char[32];
+    private int length;
+    private boolean inToken;
+
+    void tokenize(CharSequence text, Handler handler) {
+        int n = text.length();
+        for (int i = 0; i < n; ++i) {
+            next(text.charAt(i), handler);
+        }
+        end(handler);
+    }
+
+    void tokenize(char[] text, int offset, int count, Handler handler) {
+        for (int i = offset; i < offset + count; ++i) {
+            next(text[i], handler);
+        }
+        end(handler);
+    }
+
+    /**
+     * Tokenizes UTF-8 text, decoding characters as they are read; malformed bytes are read as U+FFFD
+     *
+     * @param offset - absolute position of the text in the buffer, whose own position is ignored
+     * @param count  - number of bytes of the text
+     */
+    void tokenize(ByteBuffer text, int offset, int count, Handler handler) {
+        int end = offset + count;
+        int i = offset;
+        while (i < end) {
+            int b = text.get(i++);
+            if (b >= 0) {
+                next((char) b, handler);
+                continue;
+            }
+            int extra;
+            int codePoint;
+            if ((b & 0xe0) == 0xc0) {
+                extra = 1;
+                codePoint = b & 0x1f;
+            } else if ((b & 0xf0) == 0xe0) {
+                extra = 2;
+                codePoint = b & 0x0f;
+            } else if ((b & 0xf8) == 0xf0) {
+                extra = 3;
+                codePoint = b & 0x07;
+            } else {
+                next(REPLACEMENT, handler);
+                continue;
+            }
+            int j = 0;
+            for (; j < extra && i < end && (text.get(i) & 0xc0) == 0x80; ++j) {
+                codePoint = (codePoint << 6) | (text.get(i++) & 0x3f);
+            }
+            if (j < extra || codePoint > Character.MAX_CODE_POINT) {
+                next(REPLACEMENT, handler);
+            } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                next(Character.highSurrogate(codePoint), handler);
+                next(Character.lowSurrogate(codePoint), handler);
+            } else {
+                next((char) codePoint, handler);
+            }
+        }
+        end(handler);
+    }
+
+    private void next(char c, Handler handler) {
+        if (c >= 'a' && c <= 'z') {
+            append(c);
+        } else if (c >= 'A' && c <= 'Z') {
+            append((char) (c + ('a' - 'A')));
+        } else if (c == '\'' || c == '\u2019' || Character.isLetterOrDigit(c)) {
+            //part of the token, but not kept
+            inToken = true;
+        } else if (inToken) {
+            end(handler);
+        }
+    }
+
+    private void append(char c) {
+        if (length == buffer.length) {
+            char[] _buffer = new char[2 * length];
+            System.arraycopy(buffer, 0, _buffer, 0, length);
+            buffer = _buffer;
+        }
+        buffer[length++] = c;
+        inToken = true;
+    }
+
+    private void end(Handler handler) {
+        if (length > 0 && !STOP_WORDS.contains(buffer, length)) {
+            handler.token(buffer, length);
+        }
+        length = 0;
+        inToken = false;
+    }
+}
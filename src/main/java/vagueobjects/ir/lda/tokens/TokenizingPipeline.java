@@ -0,0 +1,301 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads documents from a <code>Processor</code> with tokenizing spread over several threads. The thread
+ * calling {@link #read} runs the processor, whose handler only queues documents; workers tokenize them
+ * against dictionaries of their own and count document frequencies in a shared
+ * {@link ConcurrentDocFrequencies}, and a merging thread maps tokens to IDs of the shared dictionary, keeping
+ * documents in their original order. Queues are bounded, and the number of documents in flight is limited,
+ * so that the processor is held back when workers or the merging thread fall behind.
+ */
+class TokenizingPipeline {
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Interval at which threads waiting on each other check for a failure
+     */
+    private static final long POLL_MILLIS = 100;
+    private final int numberOfThreads;
+    private final int capacity;
+
+    /**
+     * @param numberOfThreads - number of tokenizing threads
+     * @param capacity        - number of documents that may be in flight
+     */
+    TokenizingPipeline(int numberOfThreads, int capacity) {
+        this.numberOfThreads = numberOfThreads;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Tokenizes all documents supplied by the processor
+     *
+     * @param dictionary - dictionary tokens are mapped to, which receives document frequencies at the end
+     * @return token IDs of each document, in the order the processor supplied them
+     */
+    List<int[]> read(Processor processor, final TokenDictionary dictionary) {
+        final BlockingQueue<Document> documents = new ArrayBlockingQueue<Document>(capacity);
+        final BlockingQueue<Document> results = new ArrayBlockingQueue<Document>(capacity);
+        final Semaphore inFlight = new Semaphore(capacity);
+        final List<int[]> corpus = new ArrayList<int[]>();
+        ConcurrentDocFrequencies frequencies = new ConcurrentDocFrequencies(ConcurrentDocFrequencies.DEFAULT_SHARDS);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < numberOfThreads; ++i) {
+                futures.add(executor.submit(new Worker(i, documents, results, frequencies, failure)));
+            }
+            futures.add(executor.submit(new Merger(results, inFlight, dictionary, corpus, failure)));
+            processor.process(new SourceHandler() {
+                private long sequence;
+
+                @Override
+                public void handle(String text) {
+                    try {
+                        while (!inFlight.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                            checkFailure(failure);
+                        }
+                        put(documents, new Document(sequence++, text), failure);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            for (int i = 0; i < numberOfThreads; ++i) {
+                put(documents, Document.END, failure);
+            }
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        checkFailure(failure);
+                    }
+                }
+            }
+            checkFailure(failure);
+            dictionary.setDocFrequencies(frequencies, corpus.size());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return corpus;
+    }
+
+    /**
+     * Waits for room in the queue, giving up as soon as a worker or the merging thread has failed
+     */
+    private static void put(BlockingQueue<Document> queue, Document document, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (!queue.offer(document, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure(failure);
+        }
+    }
+
+    private static void checkFailure(AtomicReference<Throwable> failure) {
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new RuntimeException("Tokenizing failed", cause);
+        }
+    }
+
+    /**
+     * A document on its way: its text, then its tokens as IDs local to the worker, along with
+     * tokens the worker has not seen before
+     */
+    private static class Document {
+        static final Document END = new Document(-1, null);
+        final long sequence;
+        final String text;
+        int worker;
+        int[] ids;
+        String[] newTokens;
+
+        Document(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+    }
+
+    private static class Worker implements Runnable {
+        private final int index;
+        private final BlockingQueue<Document> documents;
+        private final BlockingQueue<Document> results;
+        private final ConcurrentDocFrequencies frequencies;
+        private final AtomicReference<Throwable> failure;
+        private final Tokenizer tokenizer = new Tokenizer();
+        private final CharSliceMap ids = new CharSliceMap();
+        private int[] buffer = new int[256];
+        private int size;
+        /**
+         * Per token of this worker: its slot in <code>frequencies</code>, and the last document it was seen in
+         */
+        private int[] slots = new int[256];
+        private int[] lastDocs = new int[256];
+        private int docNumber;
+        /**
+         * Slots of distinct tokens of the current document
+         */
+        private int[] distinct = new int[256];
+        private int numberOfDistinct;
+        private final Tokenizer.Handler handler = new Tokenizer.Handler() {
+            @Override
+            public void token(char[] chars, int length) {
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * size);
+                }
+                int known = ids.size();
+                int id = ids.add(chars, length);
+                buffer[size++] = id;
+                if (id == known) {
+                    if (id == slots.length) {
+                        slots = Arrays.copyOf(slots, 2 * id);
+                        lastDocs = Arrays.copyOf(lastDocs, 2 * id);
+                    }
+                    slots[id] = frequencies.slot(ids.getToken(id));
+                }
+                if (lastDocs[id] != docNumber) {
+                    lastDocs[id] = docNumber;
+                    if (numberOfDistinct == distinct.length) {
+                        distinct = Arrays.copyOf(distinct, 2 * numberOfDistinct);
+                    }
+                    distinct[numberOfDistinct++] = slots[id];
+                }
+            }
+        };
+
+        Worker(int index, BlockingQueue<Document> documents, BlockingQueue<Document> results,
+               ConcurrentDocFrequencies frequencies, AtomicReference<Throwable> failure) {
+            this.index = index;
+            this.documents = documents;
+            this.results = results;
+            this.frequencies = frequencies;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Document document;
+                while ((document = documents.take()) != Document.END) {
+                    int known = ids.size();
+                    size = 0;
+                    numberOfDistinct = 0;
+                    ++docNumber;
+                    tokenizer.tokenize(document.text, handler);
+                    frequencies.addDocument(distinct, numberOfDistinct);
+                    document.worker = index;
+                    document.ids = Arrays.copyOf(buffer, size);
+                    document.newTokens = new String[ids.size() - known];
+                    for (int i = 0; i < document.newTokens.length; ++i) {
+                        document.newTokens[i] = ids.getToken(known + i);
+                    }
+                    put(results, document, failure);
+                }
+                put(results, Document.END, failure);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private class Merger implements Runnable {
+        private final BlockingQueue<Document> results;
+        private final Semaphore inFlight;
+        private final TokenDictionary dictionary;
+        private final List<int[]> corpus;
+        private final AtomicReference<Throwable> failure;
+        /**
+         * For each worker, IDs of its tokens in the shared dictionary
+         */
+        private final int[][] globalIds = new int[numberOfThreads][256];
+        private final int[] numberOfIds = new int[numberOfThreads];
+        /**
+         * Documents that came ahead of their turn
+         */
+        private final Map<Long, int[]> pending = new HashMap<Long, int[]>();
+        private long next;
+
+        Merger(BlockingQueue<Document> results, Semaphore inFlight, TokenDictionary dictionary, List<int[]> corpus,
+               AtomicReference<Throwable> failure) {
+            this.results = results;
+            this.inFlight = inFlight;
+            this.dictionary = dictionary;
+            this.corpus = corpus;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int running = numberOfThreads;
+                while (running > 0) {
+                    Document document = results.take();
+                    if (document == Document.END) {
+                        running--;
+                        continue;
+                    }
+                    int w = document.worker;
+                    for (String token : document.newTokens) {
+                        if (numberOfIds[w] == globalIds[w].length) {
+                            globalIds[w] = Arrays.copyOf(globalIds[w], 2 * numberOfIds[w]);
+                        }
+                        globalIds[w][numberOfIds[w]++] = dictionary.idOf(token);
+                    }
+                    int[] ids = document.ids;
+                    for (int i = 0; i < ids.length; ++i) {
+                        ids[i] = globalIds[w][ids[i]];
+                    }
+                    pending.put(document.sequence, ids);
+                    while (pending.containsKey(next)) {
+                        corpus.add(pending.remove(next++));
+                        inFlight.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
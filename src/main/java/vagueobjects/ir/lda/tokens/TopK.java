@@ -0,0 +1,297 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the <code>k</code> best scored IDs seen so far, in a binary min-heap over parallel arrays of IDs and
+ * scores, so that an offer costs at most <code>O(log k)</code> and creates no objects. An ID is kept at most once,
+ * with the best score offered for it. Equal scores are ordered by {@link #compareTies}, by default lower IDs first.
+ */
+public class TopK {
+    private final int k;
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+    /**
+     * Heap position of each kept ID, plus one; zero for IDs not kept. <code>null</code> if IDs are known
+     * to be offered once each, so that they need not be looked up
+     */
+    private int[] positions;
+
+    public TopK(int k) {
+        this(k, false);
+    }
+
+    /**
+     * @param unique - whether each ID is offered at most once between calls to {@link #clear()}
+     */
+    private TopK(int k, boolean unique) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+        this.ids = new int[k];
+        this.scores = new double[k];
+        this.positions = unique ? null : new int[64];
+    }
+
+    /**
+     * @return <code>true</code> if an ID not kept yet, with the given score, might be kept
+     */
+    public boolean accepts(double score) {
+        return size < k || score >= scores[0];
+    }
+
+    /**
+     * @param id    - non-negative ID
+     * @param score - score of the ID
+     * @return <code>true</code> if the ID is kept
+     */
+    public boolean offer(int id, double score) {
+        if (positions == null) {
+            return offerUnique(id, score);
+        }
+        if (id >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(2 * positions.length, id + 1));
+        }
+        int position = positions[id] - 1;
+        if (position >= 0) {
+            if (score > scores[position]) {
+                scores[position] = score;
+                siftDown(ids, scores, size, position, positions);
+            }
+            return true;
+        }
+        if (size < k) {
+            ids[size] = id;
+            scores[size] = score;
+            positions[id] = ++size;
+            siftUp(size - 1);
+            return true;
+        }
+        if (!ranksBefore(id, score, ids[0], scores[0])) {
+            return false;
+        }
+        positions[ids[0]] = 0;
+        ids[0] = id;
+        scores[0] = score;
+        positions[id] = 1;
+        siftDown(ids, scores, size, 0, positions);
+        return true;
+    }
+
+    private boolean offerUnique(int id, double score) {
+        if (size < k) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (!ranksBefore(id, score, ids[0], scores[0])) {
+            return false;
+        }
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(ids, scores, size, 0, null);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all IDs, in time proportional to their number
+     */
+    public void clear() {
+        for (int i = 0; positions != null && i < size; ++i) {
+            positions[ids[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return kept IDs, best first
+     */
+    public int[] getIds() {
+        int[] sortedIds = Arrays.copyOf(ids, size);
+        sort(sortedIds, Arrays.copyOf(scores, size));
+        return sortedIds;
+    }
+
+    /**
+     * @return scores of the IDs returned by {@link #getIds()}, in the same order
+     */
+    public double[] getScores() {
+        double[] sortedScores = Arrays.copyOf(scores, size);
+        sort(Arrays.copyOf(ids, size), sortedScores);
+        return sortedScores;
+    }
+
+    /**
+     * Orders IDs of equal scores
+     *
+     * @return a negative number if the first ID ranks before the second, positive if after
+     */
+    protected int compareTies(int id1, int id2) {
+        return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+    }
+
+    /**
+     * @return indices of the <code>k</code> highest scores, best first
+     */
+    public static int[] select(double[] scores, int k) {
+        return select(scores, new TopK(k, true));
+    }
+
+    /**
+     * Selects the highest scores with a heap of unique IDs, which is cleared first
+     */
+    private static int[] select(double[] scores, TopK topK) {
+        topK.clear();
+        for (int i = 0; i < scores.length; ++i) {
+            if (topK.accepts(scores[i])) {
+                topK.offer(i, scores[i]);
+            }
+        }
+        return topK.getIds();
+    }
+
+    /**
+     * Selects the <code>k</code> highest scores of each row, rows being spread over several threads
+     *
+     * @return for each row, indices of its highest scores, best first
+     */
+    public static int[][] select(final double[][] rows, final int k, int numberOfThreads) {
+        final int[][] result = new int[rows.length][];
+        final int stride = Math.max(1, Math.min(numberOfThreads, rows.length));
+        if (stride == 1) {
+            TopK topK = new TopK(k, true);
+            for (int r = 0; r < rows.length; ++r) {
+                result[r] = select(rows[r], topK);
+            }
+            return result;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(stride);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < stride; ++t) {
+                final int first = t;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        TopK topK = new TopK(k, true);
+                        for (int r = first; r < rows.length; r += stride) {
+                            result[r] = select(rows[r], topK);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return result;
+    }
+
+    private boolean ranksBefore(int id1, double score1, int id2, double score2) {
+        return score1 > score2 || (score1 == score2 && compareTies(id1, id2) < 0);
+    }
+
+    private void siftUp(int i) {
+        int id = ids[i];
+        double score = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!ranksBefore(ids[parent], scores[parent], id, score)) {
+                break;
+            }
+            ids[i] = ids[parent];
+            scores[i] = scores[parent];
+            if (positions != null) {
+                positions[ids[i]] = i + 1;
+            }
+            i = parent;
+        }
+        ids[i] = id;
+        scores[i] = score;
+        if (positions != null) {
+            positions[id] = i + 1;
+        }
+    }
+
+    /**
+     * Restores the heap below position <code>i</code>, whose entry may rank too high for it
+     *
+     * @param positions - positions to maintain, or <code>null</code>
+     */
+    private void siftDown(int[] ids, double[] scores, int size, int i, int[] positions) {
+        int id = ids[i];
+        double score = scores[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && ranksBefore(ids[child], scores[child], ids[child + 1], scores[child + 1])) {
+                child++;
+            }
+            if (!ranksBefore(id, score, ids[child], scores[child])) {
+                break;
+            }
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            if (positions != null) {
+                positions[ids[i]] = i + 1;
+            }
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+        if (positions != null) {
+            positions[id] = i + 1;
+        }
+    }
+
+    /**
+     * Heap sort of copies of the heap: the worst entry is moved to the end until the best one remains first
+     */
+    private void sort(int[] ids, double[] scores) {
+        for (int n = ids.length - 1; n > 0; --n) {
+            int id = ids[0];
+            double score = scores[0];
+            ids[0] = ids[n];
+            scores[0] = scores[n];
+            ids[n] = id;
+            scores[n] = score;
+            siftDown(ids, scores, n, 0, null);
+        }
+    }
+}
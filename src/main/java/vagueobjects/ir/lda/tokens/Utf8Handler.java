@@ -0,0 +1,32 @@
+package vagueobjects.ir.lda.tokens;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.nio.ByteBuffer;
+
+/**
+ * Receives documents as ranges of UTF-8 bytes, so that no <code>String</code> is made of them
+ */
+public interface Utf8Handler {
+    /**
+     * @param buffer - bytes of the document, valid until this method returns; its position is ignored
+     * @param offset - absolute position of the document in the buffer
+     * @param length - number of bytes of the document
+     */
+    void handle(ByteBuffer buffer, int offset, int length);
+}
@@ -18,19 +18,42 @@ package vagueobjects.ir.lda.tokens;
  * limitations under the License.
  */
 
+import org.apache.log4j.Logger;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 public class Words {
+    private static Logger logger = Logger.getLogger(Words.class);
     private List<String> additions = new ArrayList<String>();
     private final TokenExtractor extractor;
+    private final int cutOff;
     private final List<String> vocabulary = new ArrayList<String>();
+    /**
+     * Vocabulary tokens mapped to their positions in the sorted vocabulary
+     */
+    private CharSliceMap vocabularyIds = new CharSliceMap();
+    private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+    private int numberOfThreads = 1;
+    private int sketchWidth;
+    private int sketchDepth;
+    private int candidates;
+    private long docFrequencyErrorBound;
+    private HashedVocabulary hashedVocabulary;
 
     public static final int MINIMAL_DOCUMENT_SIZE = 1;
 
     public Words(int cutOff) {
         this.extractor = new TokenExtractor(cutOff);
+        this.cutOff = cutOff;
     }
 
     public Words addTokens(String... tokens) {
@@ -38,19 +61,194 @@ public class Words {
         return this;
     }
 
+    /**
+     * Spreads tokenizing over several threads while the processor reads documents. The result
+     * is the same as with a single thread.
+     *
+     * @param numberOfThreads - number of tokenizing threads; 1 tokenizes in the processor's thread
+     */
+    public Words useParallelTokenizing(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + numberOfThreads);
+        }
+        this.numberOfThreads = numberOfThreads;
+        return this;
+    }
+
+    /**
+     * Selects the vocabulary in fixed memory rather than from exact document frequencies of all tokens. Documents
+     * are read twice to select the vocabulary, and once more to encode them; error bounds are logged.
+     *
+     * @param width      - counters per row of the Count-Min sketch; the error is within <code>e/width</code>
+     *                   of the number of token occurrences
+     * @param depth      - rows of the sketch; the bound holds with probability <code>1 - exp(-depth)</code>
+     * @param candidates - number of tokens monitored as candidates for the vocabulary
+     * @see SketchVocabulary
+     */
+    public Words useApproximateVocabulary(int width, int depth, int candidates) {
+        if (candidates < 1) {
+            throw new IllegalArgumentException("Number of candidates must be positive: " + candidates);
+        }
+        this.sketchWidth = width;
+        this.sketchDepth = depth;
+        this.candidates = candidates;
+        return this;
+    }
+
+    /**
+     * Hashes tokens to IDs instead of selecting a vocabulary: documents are encoded in a single pass, or one at
+     * a time through {@link #encode} with no pass at all, at the price of distinct tokens sharing IDs. Stop words
+     * and single characters are dropped, but no frequency or TF-IDF cut-off is applied.
+     *
+     * @param bits             - IDs are in <code>[0, 2^bits)</code>
+     * @param samplesPerBucket - number of tokens kept per ID so that {@link #getToken} can show them; may be 0
+     */
+    public Words useHashedVocabulary(int bits, int samplesPerBucket) {
+        this.hashedVocabulary = new HashedVocabulary(bits, samplesPerBucket);
+        return this;
+    }
+
+    /**
+     * Selects the vocabulary and encodes documents supplied by the processor. Documents are read once:
+     * their tokens are kept as IDs of a dictionary, from which document frequencies, TF-IDF scores and
+     * the final encoding are computed.
+     *
+     * @return token IDs of each document with enough tokens in the vocabulary
+     */
     public int[][] processDocuments(Processor processor) {
-        processor.process(new SourceHandler() {
-            @Override
-            public void handle(String text) {
-                extractor.addTokensToFreqMap(text);
+        if (hashedVocabulary != null || candidates > 0) {
+            buildVocabulary(processor);
+            final List<int[]> documents = new ArrayList<int[]>();
+            if (processor instanceof Utf8Processor) {
+                ((Utf8Processor) processor).process(new Utf8Handler() {
+                    @Override
+                    public void handle(ByteBuffer buffer, int offset, int length) {
+                        int[] ids = encode(buffer, offset, length);
+                        if (ids != null) {
+                            documents.add(ids);
+                        }
+                    }
+                });
+            } else {
+                processor.process(new SourceHandler() {
+                    @Override
+                    public void handle(String text) {
+                        int[] ids = encode(text);
+                        if (ids != null) {
+                            documents.add(ids);
+                        }
+                    }
+                });
             }
-        });
+            return documents.toArray(new int[documents.size()][]);
+        }
+        TokenDictionary dictionary = new TokenDictionary();
+        List<int[]> corpus = read(processor, dictionary);
+        buildVocabulary(dictionary, corpus);
+
+        int[] positions = new int[dictionary.size()];
+        for (int id = 0; id < positions.length; ++id) {
+            positions[id] = vocabularyIds.get(dictionary.getToken(id));
+        }
+        List<int[]> documents = new ArrayList<int[]>();
+        for (int[] ids : corpus) {
+            int size = 0;
+            for (int id : ids) {
+                if (positions[id] >= 0) {
+                    ids[size++] = positions[id];
+                }
+            }
+            if (size > MINIMAL_DOCUMENT_SIZE) {
+                documents.add(Arrays.copyOf(ids, size));
+            }
+        }
+        return documents.toArray(new int[documents.size()][]);
+    }
+
+    /**
+     * Selects the vocabulary from documents supplied by the processor, without encoding
+     * the documents themselves. Documents are read once.
+     */
+    public void buildVocabulary(Processor processor) {
+        if (hashedVocabulary != null) {
+            logger.info("Hashed vocabulary of " + hashedVocabulary.size() + " IDs, no pass over documents");
+            return;
+        }
+        if (candidates > 0) {
+            final SketchVocabulary sketch = new SketchVocabulary(extractor, sketchWidth, sketchDepth, candidates);
+            processor.process(new SourceHandler() {
+                @Override
+                public void handle(String text) {
+                    sketch.addToDocFrequencies(text);
+                }
+            });
+            processor.process(new SourceHandler() {
+                @Override
+                public void handle(String text) {
+                    sketch.addToTfIdf(text);
+                }
+            });
+            completeVocabulary();
+            docFrequencyErrorBound = sketch.getDocFrequencyErrorBound();
+            logger.info(sketch.describeErrorBounds());
+            return;
+        }
+        TokenDictionary dictionary = new TokenDictionary();
+        buildVocabulary(dictionary, read(processor, dictionary));
+    }
+
+    /**
+     * Tokenizes each document supplied by the processor, as UTF-8 bytes if the processor can supply them
+     * and tokenizing is not spread over several threads
+     *
+     * @return dictionary IDs of tokens of each document
+     */
+    private List<int[]> read(Processor processor, final TokenDictionary dictionary) {
+        if (numberOfThreads > 1) {
+            return new TokenizingPipeline(numberOfThreads, TokenizingPipeline.DEFAULT_CAPACITY)
+                    .read(processor, dictionary);
+        }
+        final List<int[]> corpus = new ArrayList<int[]>();
+        if (processor instanceof Utf8Processor) {
+            ((Utf8Processor) processor).process(new Utf8Handler() {
+                @Override
+                public void handle(ByteBuffer buffer, int offset, int length) {
+                    corpus.add(dictionary.add(buffer, offset, length));
+                }
+            });
+            return corpus;
+        }
         processor.process(new SourceHandler() {
             @Override
             public void handle(String text) {
-                extractor.addToTfIdf(text);
+                corpus.add(dictionary.add(text));
             }
         });
+        return corpus;
+    }
+
+    private void buildVocabulary(TokenDictionary dictionary, List<int[]> corpus) {
+        extractor.docCount = dictionary.getDocCount();
+        int[] termFrequencies = new int[dictionary.size()];
+        for (int[] ids : corpus) {
+            for (int id : ids) {
+                termFrequencies[id]++;
+            }
+            for (int id : ids) {
+                if (termFrequencies[id] > 0) {
+                    extractor.addToTfIdf(dictionary.getToken(id), termFrequencies[id],
+                            dictionary.getDocFrequency(id));
+                    termFrequencies[id] = 0;
+                }
+            }
+        }
+        completeVocabulary();
+        docFrequencyErrorBound = 0;
+        logger.info("Exact vocabulary from " + dictionary.getDocCount() + " documents, "
+                + dictionary.size() + " distinct tokens");
+    }
+
+    private void completeVocabulary() {
         extractor.addToVocabulary(vocabulary);
 
         for (String add : additions) {
@@ -60,45 +258,124 @@ public class Words {
         }
 
         Collections.sort(vocabulary);
-        final List<int[]> documents = new ArrayList<int[]>();
+        indexVocabulary();
+    }
 
-        processor.process(new SourceHandler() {
-            @Override
-            public void handle(String text) {
-                List<Integer> tokenIds = new ArrayList<Integer>();
+    /**
+     * Replaces the vocabulary by one selected earlier
+     *
+     * @param tokens - sorted tokens
+     */
+    void restoreVocabulary(List<String> tokens) {
+        if (hashedVocabulary != null) {
+            throw new IllegalStateException("A hashed vocabulary is not selected from documents");
+        }
+        vocabulary.clear();
+        vocabulary.addAll(tokens);
+        indexVocabulary();
+    }
 
-                List<String> tokens = TokenExtractor.extractTokens(text);
-                for (String token : tokens) {
-                    int i = Collections.binarySearch(vocabulary, token);
-                    if (i >= 0) {
-                        tokenIds.add(i);
-                    }
-                }
-                if (tokenIds.size() > MINIMAL_DOCUMENT_SIZE) {
-                    int[] ids = new int[tokenIds.size()];
-                    for (int j = 0; j < tokenIds.size(); ++j) {
-                        ids[j] = tokenIds.get(j);
-                    }
-                    documents.add(ids);
+    private void indexVocabulary() {
+        CharSliceMap ids = new CharSliceMap();
+        for (String token : vocabulary) {
+            ids.add(token);
+        }
+        vocabularyIds = ids;
+    }
+
+    /**
+     * Maps tokens of a document to their IDs in the vocabulary; tokens outside of the vocabulary are dropped.
+     *
+     * @param text - document text
+     * @return token IDs, or <code>null</code> if the document has too few known tokens
+     */
+    public int[] encode(CharSequence text) {
+        return encoders.get().encode(text);
+    }
+
+    /**
+     * Same as {@link #encode(CharSequence)}, for a document of UTF-8 bytes
+     *
+     * @param offset - absolute position of the document in the buffer
+     * @param length - number of bytes of the document
+     */
+    public int[] encode(ByteBuffer utf8, int offset, int length) {
+        return encoders.get().encode(utf8, offset, length);
+    }
+
+    /**
+     * Tokenizes documents straight into vocabulary IDs
+     */
+    private class Encoder implements Tokenizer.Handler {
+        private final Tokenizer tokenizer = new Tokenizer();
+        private int[] buffer = new int[256];
+        private int size;
+
+        int[] encode(CharSequence text) {
+            size = 0;
+            tokenizer.tokenize(text, this);
+            return size > MINIMAL_DOCUMENT_SIZE ? Arrays.copyOf(buffer, size) : null;
+        }
+
+        int[] encode(ByteBuffer text, int offset, int length) {
+            size = 0;
+            tokenizer.tokenize(text, offset, length, this);
+            return size > MINIMAL_DOCUMENT_SIZE ? Arrays.copyOf(buffer, size) : null;
+        }
+
+        @Override
+        public void token(char[] chars, int length) {
+            int id = hashedVocabulary != null ? hashedVocabulary.id(chars, length)
+                    : vocabularyIds.get(chars, length);
+            if (id >= 0) {
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * size);
                 }
+                buffer[size++] = id;
             }
-        });
+        }
+    }
 
-        int[][] arr = new int[documents.size()][];
-        for (int i = 0; i < arr.length; ++i) {
-            arr[i] = new int[documents.get(i).length];
-            for (int j = 0; j < arr[i].length; ++j) {
-                arr[i][j] = documents.get(i)[j];
-            }
+    /**
+     * @return description of everything that determines the vocabulary and encoding, other than the documents
+     */
+    String getSettings() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("tokenizer=").append(Tokenizer.VERSION)
+                .append(";stopWords=").append(TokenExtractor.ENGLISH_STOP_WORDS)
+                .append(";cutOff=").append(cutOff)
+                .append(";minimalDocFrequency=").append(extractor.minimalDocFrequency)
+                .append(";minimalDocumentSize=").append(MINIMAL_DOCUMENT_SIZE)
+                .append(";additions=").append(additions);
+        if (hashedVocabulary != null) {
+            sb.append(";hashed=").append(hashedVocabulary.size());
+        } else if (candidates > 0) {
+            sb.append(";approximate=").append(sketchWidth).append(',').append(sketchDepth)
+                    .append(',').append(candidates);
         }
-        return arr;
+        return sb.toString();
+    }
+
+    /**
+     * @return amount by which document frequencies used to select the vocabulary may exceed true ones;
+     * 0 unless the vocabulary is approximate
+     */
+    public long getDocFrequencyErrorBound() {
+        return docFrequencyErrorBound;
+    }
+
+    /**
+     * @return <code>true</code> if tokens are hashed to IDs, see {@link #useHashedVocabulary}
+     */
+    public boolean isHashed() {
+        return hashedVocabulary != null;
     }
 
     public String getToken(int i) {
-        return vocabulary.get(i);
+        return hashedVocabulary != null ? hashedVocabulary.getToken(i) : vocabulary.get(i);
     }
 
     public int size() {
-        return vocabulary.size();
+        return hashedVocabulary != null ? hashedVocabulary.size() : vocabulary.size();
     }
 }
@@ -0,0 +1,98 @@
+package vagueobjects.ir.lda.demo;
+
+import junit.framework.TestCase;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import vagueobjects.ir.lda.tokens.Processor;
+import vagueobjects.ir.lda.tokens.SourceHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class ReutersStreamTest extends TestCase {
+    static final String[] WORDS = {"oil", "prices", "rose", "shares", "bank", "rates", "trade", "grain", "said"};
+
+    public void testExtractor() throws IOException {
+        String sgml = "<!DOCTYPE lewis SYSTEM \"lewis.dtd\">\n<REUTERS ID=\"1\"><TEXT><TITLE>T</TITLE>"
+                + "<BODY>Profit &amp; loss &lt;GM&gt; up 5 &#37; &bogus; a&b\nReuter\n&#3;</BODY></TEXT></REUTERS>\n"
+                + "<REUTERS ID=\"2\"><TEXT><body>second</body></TEXT></REUTERS>";
+        List<String> texts = extract(sgml);
+        assertEquals(2, texts.size());
+        assertEquals("Profit & loss <GM> up 5 % &bogus; a&b\nReuter\n\u0003", texts.get(0));
+        assertEquals("second", texts.get(1));
+    }
+
+    public void testSameDocumentsAsDom() throws IOException {
+        File archive = File.createTempFile("reuters", ".tar.gz");
+        try {
+            archive(archive, 5, 40, new Random(1));
+            List<String> expected = read(new Reuters(archive.getPath()));
+            assertEquals(200, expected.size());
+            assertEquals(expected, read(new ReutersStream(archive.getPath(), 1)));
+            assertEquals(expected, read(new ReutersStream(archive.getPath(), 3)));
+        } finally {
+            archive.delete();
+        }
+    }
+
+    static List<String> extract(String sgml) throws IOException {
+        final List<String> texts = new ArrayList<String>();
+        new SgmlTextExtractor("BODY").extract(new StringReader(sgml), new SourceHandler() {
+            @Override
+            public void handle(String text) {
+                texts.add(text);
+            }
+        });
+        return texts;
+    }
+
+    /**
+     * @return texts with white space normalised, as JTidy joins lines
+     */
+    static List<String> read(Processor processor) {
+        final List<String> texts = new ArrayList<String>();
+        processor.process(new SourceHandler() {
+            @Override
+            public void handle(String text) {
+                texts.add(text.trim().replaceAll("\\s+", " "));
+            }
+        });
+        return texts;
+    }
+
+    /**
+     * Writes a <code>tar.gz</code> archive of SGML files laid out like Reuters-21578
+     */
+    static void archive(File file, int numberOfFiles, int documentsPerFile, Random random) throws IOException {
+        TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+        try {
+            for (int f = 0; f < numberOfFiles; ++f) {
+                StringBuilder sb = new StringBuilder("<!DOCTYPE lewis SYSTEM \"lewis.dtd\">\n");
+                for (int d = 0; d < documentsPerFile; ++d) {
+                    sb.append("<REUTERS TOPICS=\"YES\" NEWID=\"").append(f * documentsPerFile + d).append("\">\n")
+                            .append("<DATE>26-FEB-1987</DATE>\n<TEXT>\n<TITLE>TITLE ").append(d)
+                            .append("</TITLE>\n<BODY>");
+                    int length = 20 + random.nextInt(200);
+                    for (int i = 0; i < length; ++i) {
+                        sb.append(WORDS[random.nextInt(WORDS.length)]).append(i % 12 == 11 ? ".\n" : " ");
+                    }
+                    sb.append("&lt;ACME&gt; Reuter\n</BODY></TEXT>\n</REUTERS>\n");
+                }
+                byte[] content = sb.toString().getBytes("ISO-8859-1");
+                TarArchiveEntry entry = new TarArchiveEntry("reut2-00" + f + ".sgm");
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
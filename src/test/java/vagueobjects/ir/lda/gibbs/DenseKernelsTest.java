@@ -0,0 +1,80 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class DenseKernelsTest extends TestCase {
+
+    @Override
+    protected void tearDown() {
+        DenseKernels.useUnrolledKernels(true);
+    }
+
+    public void testUnrolledSameAsScalar(){
+        Random random = new Random(1);
+        for (int n = 1; n < 20; ++n) {
+            double[] a = new double[n];
+            double[] b = new double[n];
+            int[] counts = new int[n];
+            for (int t = 0; t < n; ++t) {
+                a[t] = random.nextDouble();
+                b[t] = random.nextDouble();
+                counts[t] = random.nextInt(5);
+            }
+            double[][] p = new double[2][n];
+            double[][] smoothed = new double[2][n];
+            double[][] scaled = new double[2][n];
+            double[] weights = new double[2];
+            double[] dot = new double[2];
+            int[] sample = new int[2];
+            for (int mode = 0; mode < 2; ++mode) {
+                DenseKernels.useUnrolledKernels(mode == 1);
+                weights[mode] = DenseKernels.weights(a, counts, 0.5, p[mode], n);
+                sample[mode] = DenseKernels.sample(p[mode], 0.7 * weights[mode], n);
+                dot[mode] = DenseKernels.dot(a, b, n);
+                DenseKernels.addSmoothed(counts, b, 0.1, smoothed[mode], n);
+                DenseKernels.scale(a, 3d, scaled[mode], n);
+            }
+            assertEquals(weights[0], weights[1], 1e-12);
+            assertEquals(sample[0], sample[1]);
+            assertEquals(dot[0], dot[1], 1e-12);
+            for (int t = 0; t < n; ++t) {
+                assertEquals(p[0][t], p[1][t], 0d);
+                assertEquals(smoothed[0][t], smoothed[1][t], 1e-12);
+                assertEquals(scaled[0][t], scaled[1][t], 0d);
+            }
+        }
+    }
+
+    public void testSample(){
+        double[] p = {0d, 1d, 0d, 0d, 2d, 0d};
+        for (int mode = 0; mode < 2; ++mode) {
+            DenseKernels.useUnrolledKernels(mode == 1);
+            assertEquals(1, DenseKernels.sample(p, 0.5, p.length));
+            assertEquals(4, DenseKernels.sample(p, 1.5, p.length));
+            assertEquals(4, DenseKernels.sample(p, 2.99, p.length));
+        }
+    }
+
+    public void testSampleBelowSum(){
+        Random random = new Random(2);
+        for (int n = 4; n <= 128; n += 4) {
+            double[] phi = new double[n];
+            int[] counts = new int[n];
+            double[] p = new double[n];
+            for (int mode = 0; mode < 2; ++mode) {
+                DenseKernels.useUnrolledKernels(mode == 1);
+                for (int i = 0; i < 1000; ++i) {
+                    for (int t = 0; t < n; ++t) {
+                        phi[t] = random.nextDouble();
+                        counts[t] = random.nextInt(5);
+                    }
+                    double sum = DenseKernels.weights(phi, counts, 0.1, p, n);
+                    int topic = DenseKernels.sample(p, Math.nextAfter(sum, 0d), n);
+                    assertTrue(topic >= 0 && topic < n);
+                }
+            }
+        }
+    }
+}
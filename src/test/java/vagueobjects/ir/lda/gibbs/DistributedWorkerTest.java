@@ -0,0 +1,63 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DistributedWorkerTest extends TestCase {
+
+    public void testLocalhost() throws Exception {
+        final int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        final int numberOfWorkers = 3;
+        ParameterServer server = new ParameterServer(2, 5, numberOfWorkers, 1, 0.1);
+        final int port = server.start(0);
+
+        final List<DistributedWorker> workers = new ArrayList<DistributedWorker>();
+        final List<Exception> errors = new ArrayList<Exception>();
+        List<Thread> threads = new ArrayList<Thread>();
+        int numTokens = 0;
+        for (int i = 0; i < numberOfWorkers; ++i) {
+            List<int[]> shard = new ArrayList<int[]>();
+            for (int d = i; d < wordInDocs.length; d += numberOfWorkers) {
+                shard.add(wordInDocs[d]);
+                numTokens += wordInDocs[d].length;
+            }
+            final DistributedWorker worker = new DistributedWorker(i, 2, 5, 0.5, 0.1, shard.toArray(new int[shard.size()][]));
+            workers.add(worker);
+            final long seed = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.execute("localhost", port, 50, new Random(seed));
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        server.awaitCompletion();
+        assertTrue(errors.isEmpty());
+        assertEquals(numTokens, server.getNumberOfTokens());
+        for (double[] row : server.getPhi()) {
+            double sum = 0;
+            for (double p : row) {
+                sum += p;
+            }
+            assertEquals(1d, sum, 1e-9);
+        }
+        for (DistributedWorker worker : workers) {
+            assertTrue(worker.getThroughput() > 0);
+            assertEquals(1d, worker.getTheta()[0][0] + worker.getTheta()[0][1], 1e-9);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package vagueobjects.ir.lda.gibbs;
 
 import junit.framework.TestCase;
+import org.apache.commons.math.random.RandomDataImpl;
 import org.apache.log4j.BasicConfigurator;
 
 import java.util.*;
@@ -21,6 +22,175 @@ public class GibbsSamplerTest extends TestCase{
         assertTrue(true);
     }
 
+    public void testUpdate(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10);
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(Arrays.copyOfRange(wordInDocs, 0, 12), 5, random);
+        sampler.update(Arrays.copyOfRange(wordInDocs, 12, 16), 20, 4, random);
+
+        double[][] theta = sampler.getTheta();
+        assertEquals(16, theta.length);
+        for(double[] row: theta){
+            assertEquals(1d, row[0] + row[1], 1e-9);
+        }
+        double[][] phi = sampler.getPhi();
+        assertEquals(2, phi.length);
+        for(double[] row: phi){
+            double sum = 0;
+            for(double p: row){
+                sum += p;
+            }
+            assertEquals(1d, sum, 1e-9);
+        }
+    }
+
+    public void testRejectedUpdateLeavesSamplerUnchanged(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10);
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(Arrays.copyOfRange(wordInDocs, 0, 12), 5, random);
+        double[][] phi = sampler.getPhi();
+        try {
+            sampler.update(new int[][]{wordInDocs[12], {0, 5}}, 20, 4, random);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected: token 5 is outside of the vocabulary
+        }
+        assertEquals(12, sampler.getTheta().length);
+        assertTrue(Arrays.deepEquals(phi, sampler.getPhi()));
+        sampler.update(Arrays.copyOfRange(wordInDocs, 12, 16), 20, 4, random);
+        assertEquals(16, sampler.getTheta().length);
+    }
+
+    public void testOffHeap(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10).useOffHeapStorage();
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(Arrays.copyOfRange(wordInDocs, 0, 12), 5, random);
+        sampler.update(Arrays.copyOfRange(wordInDocs, 12, 16), 20, 4, random);
+        sampler.close();
+        assertEquals(16, sampler.getTheta().length);
+        try {
+            sampler.update(wordInDocs, 1, 0, random);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    public void testHybrid(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10).useHybridRows();
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(wordInDocs, 5, random);
+        assertEquals(16, sampler.getTheta().length);
+    }
+
+    public void testWordMajor(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10).useWordMajorSweeps();
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(wordInDocs, 5, random);
+        double[][] phi = sampler.getPhi();
+        //river and stream end up in the topic other than money and loan
+        int riverTopic = phi[0][Token.River.ordinal()] > phi[1][Token.River.ordinal()] ? 0 : 1;
+        assertTrue(phi[riverTopic][Token.Stream.ordinal()] > phi[1 - riverTopic][Token.Stream.ordinal()]);
+        assertTrue(phi[riverTopic][Token.Money.ordinal()] < phi[1 - riverTopic][Token.Money.ordinal()]);
+    }
+
+    public void testWordMajorOffHeap(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10).useOffHeapStorage()
+                .useWordMajorSweeps();
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(wordInDocs, 5, random);
+        sampler.close();
+        double[][] phi = sampler.getPhi();
+        int riverTopic = phi[0][Token.River.ordinal()] > phi[1][Token.River.ordinal()] ? 0 : 1;
+        assertTrue(phi[riverTopic][Token.Stream.ordinal()] > phi[1 - riverTopic][Token.Stream.ordinal()]);
+        assertTrue(phi[riverTopic][Token.Money.ordinal()] < phi[1 - riverTopic][Token.Money.ordinal()]);
+        double[][] theta = sampler.getTheta();
+        //the first document is about money only, the last one mostly about rivers
+        assertTrue(theta[0][riverTopic] < theta[0][1 - riverTopic]);
+        assertTrue(theta[15][riverTopic] > theta[15][1 - riverTopic]);
+    }
+
+    public void testParallel(){
+        Random random = new Random(10000000000001L);
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10).useParallelSweeps(3);
+        int [][] wordInDocs = new Docs().getWordsInDocs();
+        sampler.execute(Arrays.copyOfRange(wordInDocs, 0, 12), 5, random);
+        sampler.update(Arrays.copyOfRange(wordInDocs, 12, 16), 20, 4, random);
+        double[][] phi = sampler.getPhi();
+        int riverTopic = phi[0][Token.River.ordinal()] > phi[1][Token.River.ordinal()] ? 0 : 1;
+        assertTrue(phi[riverTopic][Token.Stream.ordinal()] > phi[1 - riverTopic][Token.Stream.ordinal()]);
+        assertEquals(16, sampler.getTheta().length);
+    }
+
+    public void testHyperparameterOptimization() throws Exception {
+        //documents drawn from two topics with alpha = (2, 0.2) and topic-word distributions drawn with beta = 0.2
+        double[] trueAlpha = {2d, 0.2d};
+        int V = 30;
+        RandomDataImpl randomData = new RandomDataImpl();
+        randomData.reSeed(3);
+        Random random = new Random(3);
+        double[][] trueTopics = new double[2][V];
+        for (double[] topic : trueTopics) {
+            for (int w = 0; w < V; ++w) {
+                topic[w] = randomData.nextGamma(0.2d, 1d);
+            }
+        }
+        int[][] wordInDocs = new int[300][50];
+        for (int[] doc : wordInDocs) {
+            double[] theta = {randomData.nextGamma(trueAlpha[0], 1d), randomData.nextGamma(trueAlpha[1], 1d)};
+            for (int i = 0; i < doc.length; ++i) {
+                int t = random.nextDouble() * (theta[0] + theta[1]) < theta[0] ? 0 : 1;
+                doc[i] = draw(trueTopics[t], random);
+            }
+        }
+
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 300, 100, 10).useHyperparameterOptimization(20);
+        sampler.execute(wordInDocs, V, random);
+        double[] alpha = sampler.getAlpha();
+        assertEquals(2, alpha.length);
+        //the topic covering most tokens gets the larger prior
+        double[] share = new double[2];
+        for (double[] row : sampler.getTheta()) {
+            assertEquals(1d, row[0] + row[1], 1e-9);
+            share[0] += row[0];
+            share[1] += row[1];
+        }
+        int major = share[0] > share[1] ? 0 : 1;
+        assertEquals(trueAlpha[0], alpha[major], 0.5 * trueAlpha[0]);
+        assertEquals(trueAlpha[1], alpha[1 - major], 0.5 * trueAlpha[1]);
+        //moves from the initial 0.01 to about the true value
+        assertEquals(0.2, sampler.getBeta(), 0.1);
+    }
+
+    private static int draw(double[] weights, Random random) {
+        double sum = 0;
+        for (double weight : weights) {
+            sum += weight;
+        }
+        double u = random.nextDouble() * sum;
+        int i = 0;
+        while (i < weights.length - 1 && (u -= weights[i]) > 0) {
+            i++;
+        }
+        return i;
+    }
+
+    public void testUpdateRequiresTraining(){
+        SparseGibbsSampler sampler = new SparseGibbsSampler(2, 1000, 100, 10);
+        try {
+            sampler.update(new Docs().getWordsInDocs(), 1, 0, new Random());
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
     static enum Token  { River, Stream, Bank, Money, Loan }
     
     static class Docs {
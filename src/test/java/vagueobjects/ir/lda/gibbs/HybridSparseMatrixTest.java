@@ -0,0 +1,68 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class HybridSparseMatrixTest extends TestCase {
+
+    public void testTransitions(){
+        HybridSparseMatrix matrix = new HybridSparseMatrix(1, 16, 4);
+        for (int t = 0; t < 4; ++t) {
+            matrix.increment(0, t);
+        }
+        assertFalse(matrix.isDense(0));
+        matrix.increment(0, 4);
+        assertTrue(matrix.isDense(0));
+        assertEquals(5, matrix.size(0));
+        for (int t = 4; t > 0; --t) {
+            matrix.decrement(0, t);
+        }
+        assertFalse(matrix.isDense(0));
+        assertEquals(1, matrix.get(0, 0));
+        assertEquals(0, matrix.get(0, 1));
+    }
+
+    public void testSameAsSparseMatrix(){
+        Random random = new Random(1);
+        int rows = 20;
+        int topics = 17;
+        HybridSparseMatrix hybrid = new HybridSparseMatrix(rows, topics, 6);
+        hybrid.toDense(0);
+        SparseMatrix matrix = new SparseMatrix(rows, topics);
+        double[] coefficients = new double[topics];
+        for (int t = 0; t < topics; ++t) {
+            coefficients[t] = random.nextDouble();
+        }
+        for (int i = 0; i < 5000; ++i) {
+            int r = random.nextInt(rows);
+            int t = random.nextInt(topics);
+            if (matrix.get(r, t) > 0 && random.nextBoolean()) {
+                matrix.decrement(r, t);
+                hybrid.decrement(r, t);
+            } else {
+                matrix.increment(r, t);
+                hybrid.increment(r, t);
+            }
+        }
+        for (int r = 0; r < rows; ++r) {
+            assertEquals(matrix.size(r), hybrid.size(r));
+            double[] expected = new double[topics];
+            double[] actual = new double[topics];
+            matrix.accumulate(r, coefficients, expected);
+            hybrid.accumulate(r, coefficients, actual);
+            for (int t = 0; t < topics; ++t) {
+                assertEquals(matrix.get(r, t), hybrid.get(r, t));
+                assertEquals(expected[t], actual[t], 1e-9);
+            }
+            assertEquals(matrix.weightedSum(r, coefficients), hybrid.weightedSum(r, coefficients), 1e-9);
+            int[] keys = new int[topics];
+            int[] values = new int[topics];
+            int size = hybrid.row(r, keys, values);
+            assertEquals(matrix.size(r), size);
+            for (int i = 0; i < size; ++i) {
+                assertEquals(matrix.get(r, keys[i]), values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ModelParallelSamplerTest extends TestCase {
+
+    public void testBalance(){
+        assertTrue(Arrays.equals(new int[]{0, 2, 4}, ModelParallelSampler.balance(new int[]{1, 1, 1, 1}, 2)));
+        assertTrue(Arrays.equals(new int[]{0, 1, 3}, ModelParallelSampler.balance(new int[]{10, 5, 5}, 2)));
+        assertTrue(Arrays.equals(new int[]{0, 1, 1, 1}, ModelParallelSampler.balance(new int[]{10}, 3)));
+    }
+
+    public void testExecute(){
+        Random random = new Random(10000000000001L);
+        int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        ModelParallelSampler sampler = new ModelParallelSampler(2, 100, 3);
+        sampler.execute(wordInDocs, 5, random);
+        assertEquals(16, sampler.getTheta().length);
+        for(double[] row: sampler.getPhi()){
+            double sum = 0;
+            for(double p: row){
+                sum += p;
+            }
+            assertEquals(1d, sum, 1e-9);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class MultiChainSamplerTest extends TestCase {
+
+    public void testRHat(){
+        Random random = new Random(1);
+        List<double[]> mixed = new ArrayList<double[]>();
+        List<double[]> apart = new ArrayList<double[]>();
+        for (int i = 0; i < 200; ++i) {
+            mixed.add(new double[]{random.nextGaussian(), random.nextGaussian(), random.nextGaussian()});
+            apart.add(new double[]{random.nextGaussian(), 5 + random.nextGaussian(), random.nextGaussian()});
+        }
+        assertEquals(1d, MultiChainSampler.rHat(mixed), 0.05);
+        assertTrue(MultiChainSampler.rHat(apart) > 2);
+        assertTrue(Double.isNaN(MultiChainSampler.rHat(mixed.subList(0, MultiChainSampler.MIN_RECORDS - 1))));
+    }
+
+    public void testStopsOnceChainsAgree(){
+        MultiChainSampler sampler = new MultiChainSampler(2, 3, 2000, 5);
+        sampler.execute(new GibbsSamplerTest.Docs().getWordsInDocs(), 5, new Random(10000000000001L));
+        assertTrue(sampler.getNumberOfIterations() < 2000);
+        assertTrue(sampler.getRHat() < MultiChainSampler.DEFAULT_R_HAT_THRESHOLD);
+        for (int c = 0; c < sampler.getNumberOfChains(); ++c) {
+            assertEquals(16, sampler.getTheta(c).length);
+            for (double[] row : sampler.getPhi(c)) {
+                double sum = 0;
+                for (double p : row) {
+                    sum += p;
+                }
+                assertEquals(1d, sum, 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class OffHeapSparseMatrixTest extends TestCase {
+
+    public void testIncrementDecrement(){
+        OffHeapSparseMatrix matrix = new OffHeapSparseMatrix(new int[]{3, 1}, 3);
+        matrix.increment(0, 1);
+        matrix.increment(0, 1);
+        matrix.increment(0, 2);
+        matrix.increment(0, 0);
+        matrix.increment(1, 2);
+        assertEquals(3, matrix.size(0));
+        assertEquals(2, matrix.get(0, 1));
+        assertEquals(1, matrix.get(0, 2));
+        assertEquals(1, matrix.get(1, 2));
+        matrix.decrement(0, 1);
+        matrix.decrement(0, 1);
+        assertEquals(2, matrix.size(0));
+        assertEquals(0, matrix.get(0, 1));
+        try {
+            matrix.increment(1, 0);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        matrix.close();
+    }
+
+    public void testSameAsSparseMatrix(){
+        Random random = new Random(1);
+        int rows = 20;
+        int topics = 17;
+        int[] capacities = new int[rows];
+        for (int r = 0; r < rows; ++r) {
+            capacities[r] = topics;
+        }
+        OffHeapSparseMatrix offHeap = new OffHeapSparseMatrix(capacities, topics);
+        SparseMatrix matrix = new SparseMatrix(rows, topics);
+        double[] coefficients = new double[topics];
+        for (int t = 0; t < topics; ++t) {
+            coefficients[t] = random.nextDouble();
+        }
+        for (int i = 0; i < 5000; ++i) {
+            int r = random.nextInt(rows);
+            int t = random.nextInt(topics);
+            if (matrix.get(r, t) > 0 && random.nextBoolean()) {
+                matrix.decrement(r, t);
+                offHeap.decrement(r, t);
+            } else {
+                matrix.increment(r, t);
+                offHeap.increment(r, t);
+            }
+        }
+        for (int r = 0; r < rows; ++r) {
+            assertEquals(matrix.size(r), offHeap.size(r));
+            for (int t = 0; t < topics; ++t) {
+                assertEquals(matrix.get(r, t), offHeap.get(r, t));
+            }
+            assertEquals(matrix.weightedSum(r, coefficients), offHeap.weightedSum(r, coefficients), 1e-9);
+            int[] keys = new int[topics];
+            int[] values = new int[topics];
+            int size = offHeap.row(r, keys, values);
+            assertEquals(matrix.size(r), size);
+            for (int i = 0; i < size; ++i) {
+                assertEquals(matrix.get(r, keys[i]), values[i]);
+            }
+            if (matrix.size(r) > 0) {
+                assertEquals(matrix.sample(r, coefficients, 0.5), offHeap.sample(r, coefficients, 0.5));
+            }
+        }
+        OffHeapSparseMatrix resized = offHeap.resize(capacities);
+        assertEquals(matrix.get(3, 5), resized.get(3, 5));
+        resized.close();
+    }
+}
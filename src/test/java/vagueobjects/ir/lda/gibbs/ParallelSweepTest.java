@@ -0,0 +1,97 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ParallelSweepTest extends TestCase {
+
+    public void testLongDocumentsAreSplit(){
+        int[][] tokens = corpus(new Random(1), new int[]{5000, 3, 40, 1200, 7});
+        ParallelSweep sweep = sweep(tokens, 2, 500, new Random(1));
+        // 10 + 1 + 1 + 3 + 1
+        assertEquals(16, sweep.getNumberOfUnits());
+        sweep.shutdown();
+    }
+
+    public void testCountsStayConsistent(){
+        Random random = new Random(2);
+        int[][] tokens = corpus(random, new int[]{3000, 2, 50, 800, 9, 2500, 30});
+        ParallelSweep sweep = sweep(tokens, 4, 100, random);
+        for (int i = 0; i < 5; ++i) {
+            sweep.sweep();
+        }
+        sweep.shutdown();
+        assertConsistent();
+        assertTrue(sweep.describeUtilisation().startsWith("#0: "));
+    }
+
+    private int[][] corpus(Random random, int[] lengths) {
+        int[][] tokens = new int[lengths.length][];
+        for (int d = 0; d < lengths.length; ++d) {
+            tokens[d] = new int[lengths[d]];
+            for (int i = 0; i < lengths[d]; ++i) {
+                tokens[d][i] = random.nextInt(V);
+            }
+        }
+        return tokens;
+    }
+
+    private static final int V = 30;
+    private static final int K = 5;
+
+    /**
+     * Sets up counts of random topic assignments
+     */
+    private ParallelSweep sweep(int[][] tokens, int threads, int grain, Random random) {
+        this.tokens = tokens;
+        z = new int[tokens.length][];
+        nw = new SparseMatrix(V, K);
+        nwSum = new int[K];
+        nd = new HeapDocTopicCounts(tokens.length, K);
+        for (int d = 0; d < tokens.length; ++d) {
+            z[d] = new int[tokens[d].length];
+            int[] row = nd.row(d, null);
+            for (int i = 0; i < z[d].length; ++i) {
+                z[d][i] = random.nextInt(K);
+                nw.increment(tokens[d][i], z[d][i]);
+                nwSum[z[d][i]]++;
+                row[z[d][i]]++;
+            }
+        }
+        return new ParallelSweep(K, SparseSweep.symmetric(K, 0.1), 0.01, V, nw, nwSum, tokens, z, nd, 0, tokens.length, threads, grain,
+                false, new Random(random.nextLong()));
+    }
+
+    private int[][] tokens;
+    private int[][] z;
+    private SparseMatrix nw;
+    private int[] nwSum;
+    private HeapDocTopicCounts nd;
+
+    /**
+     * Checks the counts against topic assignments
+     */
+    private void assertConsistent() {
+        int[][] expectedNw = new int[V][K];
+        int[] expectedSum = new int[K];
+        for (int d = 0; d < tokens.length; ++d) {
+            int[] expectedNd = new int[K];
+            for (int i = 0; i < z[d].length; ++i) {
+                expectedNw[tokens[d][i]][z[d][i]]++;
+                expectedSum[z[d][i]]++;
+                expectedNd[z[d][i]]++;
+            }
+            int[] row = nd.row(d, null);
+            for (int t = 0; t < K; ++t) {
+                assertEquals(expectedNd[t], row[t]);
+            }
+        }
+        for (int t = 0; t < K; ++t) {
+            assertEquals(expectedSum[t], nwSum[t]);
+            for (int w = 0; w < V; ++w) {
+                assertEquals(expectedNw[w][t], nw.get(w, t));
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+import org.apache.commons.math.random.RandomDataImpl;
+
+import java.util.Random;
+
+public class PriorOptimizerTest extends TestCase {
+
+    public void testAlphaFromDirichletMultinomial() throws Exception {
+        double[] expected = {0.1, 0.5, 2.0};
+        int K = expected.length;
+        int length = 50;
+        RandomDataImpl randomData = new RandomDataImpl();
+        randomData.reSeed(1);
+        Random random = new Random(1);
+        int[] docLengthHistogram = new int[length + 1];
+        int[][] topicCountHistogram = new int[K][length + 1];
+        for (int d = 0; d < 3000; ++d) {
+            double[] theta = new double[K];
+            double sum = 0;
+            for (int t = 0; t < K; ++t) {
+                theta[t] = randomData.nextGamma(expected[t], 1d);
+                sum += theta[t];
+            }
+            int[] counts = new int[K];
+            for (int i = 0; i < length; ++i) {
+                double u = random.nextDouble() * sum;
+                int t = 0;
+                while (t < K - 1 && (u -= theta[t]) > 0) {
+                    t++;
+                }
+                counts[t]++;
+            }
+            docLengthHistogram[length]++;
+            for (int t = 0; t < K; ++t) {
+                topicCountHistogram[t][counts[t]]++;
+            }
+        }
+        double[] alpha = {1d, 1d, 1d};
+        for (int i = 0; i < 10; ++i) {
+            PriorOptimizer.optimizeAlpha(alpha, docLengthHistogram, topicCountHistogram);
+        }
+        for (int t = 0; t < K; ++t) {
+            assertEquals(expected[t], alpha[t], 0.2 * expected[t]);
+        }
+    }
+
+    public void testBetaFromDirichletMultinomial() throws Exception {
+        double expected = 0.05;
+        int V = 300;
+        int K = 20;
+        RandomDataImpl randomData = new RandomDataImpl();
+        randomData.reSeed(2);
+        Random random = new Random(2);
+        int[] nwSum = new int[K];
+        int[][] counts = new int[K][V];
+        int maxCount = 0;
+        for (int t = 0; t < K; ++t) {
+            double[] phi = new double[V];
+            double sum = 0;
+            for (int w = 0; w < V; ++w) {
+                phi[w] = randomData.nextGamma(expected, 1d);
+                sum += phi[w];
+            }
+            for (int i = 0; i < 3000; ++i) {
+                double u = random.nextDouble() * sum;
+                int w = 0;
+                while (w < V - 1 && (u -= phi[w]) > 0) {
+                    w++;
+                }
+                maxCount = Math.max(maxCount, ++counts[t][w]);
+                nwSum[t]++;
+            }
+        }
+        int[] countHistogram = new int[maxCount + 1];
+        for (int t = 0; t < K; ++t) {
+            for (int w = 0; w < V; ++w) {
+                countHistogram[counts[t][w]]++;
+            }
+        }
+        double beta = 0.5;
+        for (int i = 0; i < 10; ++i) {
+            beta = PriorOptimizer.optimizeBeta(beta, V, countHistogram, nwSum);
+        }
+        assertEquals(expected, beta, 0.25 * expected);
+    }
+}
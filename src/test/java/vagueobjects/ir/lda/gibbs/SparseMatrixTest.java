@@ -162,6 +162,42 @@ public class SparseMatrixTest extends TestCase{
         verifySorted(matrix);
     }
     
+    public void testFits(){
+        assertTrue(SparseMatrix.fits((1 << 21) - 1, 1024));
+        assertFalse(SparseMatrix.fits(1 << 21, 1024));
+    }
+
+    public void testWide(){
+        WideSparseMatrix matrix = new WideSparseMatrix(1, 1024);
+        int count = (1 << 21) + 5;
+        for(int i=0; i<count; ++i){
+            matrix.increment(0, 1023);
+        }
+        matrix.increment(0, 7);
+        assertEquals(count, matrix.get(0, 1023));
+        assertEquals(1, matrix.get(0, 7));
+        assertEquals(7, matrix.sample(0, new double[1024], 0));
+        matrix.decrement(0, 1023);
+        assertEquals(count - 1, matrix.get(0, 1023));
+        matrix.decrement(0, 7);
+        assertEquals(1, matrix.size(0));
+    }
+
+    public void testWideCopy(){
+        SparseMatrix matrix  = new SparseMatrix(1,10);
+        matrix.add(0, 1);
+        matrix.add(0, 1);
+        matrix.add(0, 2);
+        matrix.add(0, 9);
+        WideSparseMatrix wide = WideSparseMatrix.of(matrix);
+        assertEquals(2, wide.get(0, 1));
+        assertEquals(1, wide.get(0, 9));
+        wide.increment(0, 9);
+        wide.increment(0, 9);
+        assertEquals(3, wide.get(0, 9));
+        assertEquals(9, wide.array[0][2] & wide.mask);
+    }
+
     boolean verifySorted(SparseMatrix matrix){
         for(int[] row: matrix.array){
             int prev=0;
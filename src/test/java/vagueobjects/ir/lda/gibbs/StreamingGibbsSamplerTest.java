@@ -0,0 +1,93 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StreamingGibbsSamplerTest extends TestCase {
+
+    public void testWindow(){
+        Random random = new Random(10000000000001L);
+        int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        StreamingGibbsSampler sampler = new StreamingGibbsSampler(2, 5, 2, 10);
+        sampler.advance(Arrays.copyOfRange(wordInDocs, 0, 6), random);
+        assertEquals(6, sampler.getNumberOfDocuments());
+        sampler.advance(Arrays.copyOfRange(wordInDocs, 6, 10), random);
+        assertEquals(10, sampler.getNumberOfDocuments());
+        sampler.advance(Arrays.copyOfRange(wordInDocs, 10, 16), random);
+        assertEquals(10, sampler.getNumberOfDocuments());
+        assertEquals(10, sampler.getTheta().length);
+        verifyNormalized(sampler.getPhi());
+        verifyNormalized(sampler.getTheta());
+    }
+
+    public void testRetireAll(){
+        Random random = new Random(10000000000001L);
+        int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        StreamingGibbsSampler sampler = new StreamingGibbsSampler(2, 5, 1, 1);
+        sampler.advance(wordInDocs, random);
+        sampler.advance(new int[0][], random);
+        assertEquals(0, sampler.getNumberOfDocuments());
+        //no counts left, only smoothing remains
+        for(double[] row: sampler.getPhi()){
+            for(double p: row){
+                assertEquals(0.2, p, 1e-9);
+            }
+        }
+    }
+
+    public void testRejectedBatchLeavesNoCounts(){
+        Random random = new Random(10000000000001L);
+        int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        StreamingGibbsSampler sampler = new StreamingGibbsSampler(2, 5, 1, 1);
+        try {
+            sampler.advance(new int[][]{wordInDocs[0], wordInDocs[1], {0, 5}}, random);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected: token 5 is outside of the vocabulary
+        }
+        assertEquals(0, sampler.getNumberOfDocuments());
+        for(double[] row: sampler.getPhi()){
+            for(double p: row){
+                assertEquals(0.2, p, 1e-9);
+            }
+        }
+    }
+
+    public void testSnapshotDoesNotWaitForUpdate() throws Exception {
+        final int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        final StreamingGibbsSampler sampler = new StreamingGibbsSampler(2, 5, 2, 40000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                sampler.advance(wordInDocs, new Random(1));
+                done.set(true);
+            }
+        });
+        feeder.start();
+        started.await();
+        Thread.sleep(50);
+        //the snapshot is the one before the update, taken while sweeps are still running
+        assertEquals(0, sampler.getNumberOfDocuments());
+        verifyNormalized(sampler.getPhi());
+        assertFalse(done.get());
+        feeder.join();
+        assertEquals(16, sampler.getNumberOfDocuments());
+    }
+
+    void verifyNormalized(double[][] matrix){
+        for(double[] row: matrix){
+            double sum = 0;
+            for(double p: row){
+                sum += p;
+            }
+            assertEquals(1d, sum, 1e-9);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package vagueobjects.ir.lda.gibbs;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class TopicCountSelectorTest extends TestCase {
+
+    public void testSelection(){
+        int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        TopicCountSelector selector = new TopicCountSelector(new int[]{1, 2, 4}, 200, 20, 1L << 20);
+        selector.execute(wordInDocs, 5, 0.25, new Random(10000000000001L));
+        TopicCountSelector.Status[] statuses = selector.getStatuses();
+        int best = selector.getBestNumberOfTopics();
+        assertTrue(best > 0);
+        for (int i = 0; i < statuses.length; ++i) {
+            assertTrue(statuses[i] != TopicCountSelector.Status.REJECTED);
+            assertTrue(selector.getPerplexities()[i] > 1);
+            if (statuses[i] == TopicCountSelector.Status.COMPLETED) {
+                assertEquals(200, selector.getIterations()[i]);
+            }
+        }
+    }
+
+    public void testMemoryBudget(){
+        int[][] wordInDocs = new GibbsSamplerTest.Docs().getWordsInDocs();
+        int[] frequencies = new int[5];
+        for (int[] doc : wordInDocs) {
+            for (int wid : doc) {
+                frequencies[wid]++;
+            }
+        }
+        long small = TopicCountSelector.estimateMemory(wordInDocs, frequencies, 2);
+        long large = TopicCountSelector.estimateMemory(wordInDocs, frequencies, 1000);
+        assertTrue(large > small);
+
+        TopicCountSelector selector = new TopicCountSelector(new int[]{2, 1000}, 20, 10, small * 2);
+        selector.execute(wordInDocs, 5, 0.25, new Random(1));
+        assertEquals(TopicCountSelector.Status.COMPLETED, selector.getStatuses()[0]);
+        assertEquals(TopicCountSelector.Status.REJECTED, selector.getStatuses()[1]);
+        assertTrue(Double.isNaN(selector.getPerplexities()[1]));
+        assertEquals(2, selector.getBestNumberOfTopics());
+    }
+}
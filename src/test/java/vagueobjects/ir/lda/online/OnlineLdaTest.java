@@ -0,0 +1,57 @@
+package vagueobjects.ir.lda.online;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class OnlineLdaTest extends TestCase {
+
+    public void testSeparatesTopics(){
+        Random random = new Random(10000000000001L);
+        int[][] docs = new int[200][];
+        for(int d=0; d<docs.length; ++d){
+            int offset = (d % 2 == 0) ? 0 : 2;
+            docs[d] = new int[20];
+            for(int w=0; w<docs[d].length; ++w){
+                docs[d][w] = offset + random.nextInt(2);
+            }
+        }
+        OnlineLda lda = new OnlineLda(2, 4, docs.length, 1, 0.7, random);
+        for(int pass=0; pass<5; ++pass){
+            lda.execute(docs, 20, random);
+        }
+        double[][] phi = lda.getPhi();
+        assertEquals(2, phi.length);
+        assertEquals(4, phi[0].length);
+        //each topic concentrates on one pair of words
+        for(double[] row: phi){
+            double first = row[0] + row[1];
+            assertTrue(first > 0.9 || first < 0.1);
+        }
+        double[][] theta = lda.getTheta();
+        assertEquals(docs.length, theta.length);
+        assertEquals(1d, theta[0][0] + theta[0][1], 1e-9);
+    }
+
+    public void testInvalidKappa(){
+        try {
+            new OnlineLda(2, 4, 10, 1, 0.5, new Random());
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    public void testEmptyMiniBatch(){
+        OnlineLda lda = new OnlineLda(2, 4, 10, 1, 0.7, new Random(1));
+        double[][] phi = lda.getPhi();
+        try {
+            lda.update(new int[0][], new Random(2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        assertTrue(Arrays.deepEquals(phi, lda.getPhi()));
+    }
+}
@@ -0,0 +1,67 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ConcurrentDocFrequenciesTest extends TestCase {
+
+    public void testSingleThread(){
+        ConcurrentDocFrequencies frequencies = new ConcurrentDocFrequencies(1);
+        int river = frequencies.slot("river");
+        int bank = frequencies.slot("bank");
+        assertEquals(river, frequencies.slot("river"));
+        frequencies.addDocument(new int[]{bank, river}, 2);
+        frequencies.addDocument(new int[]{bank, frequencies.slot("loan")}, 2);
+        assertEquals(1, frequencies.get("river"));
+        assertEquals(2, frequencies.get("bank"));
+        assertEquals(1, frequencies.get("loan"));
+        assertEquals(0, frequencies.get("money"));
+        assertEquals(3, frequencies.size());
+    }
+
+    public void testConcurrentUpdates() throws Exception {
+        final List<String> documents = WordsTest.corpus(2000, new Random(5));
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (String document : documents) {
+            for (String token : new HashSet<String>(TokenExtractor.extractTokens(document))) {
+                Integer count = expected.get(token);
+                expected.put(token, count == null ? 1 : count + 1);
+            }
+        }
+
+        final ConcurrentDocFrequencies frequencies = new ConcurrentDocFrequencies(4);
+        final int numberOfThreads = 4;
+        Thread[] threads = new Thread[numberOfThreads];
+        for (int t = 0; t < numberOfThreads; ++t) {
+            final int first = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int d = first; d < documents.size(); d += numberOfThreads) {
+                        HashSet<String> tokens = new HashSet<String>(TokenExtractor.extractTokens(documents.get(d)));
+                        int[] slots = new int[tokens.size()];
+                        int size = 0;
+                        for (String token : tokens) {
+                            slots[size++] = frequencies.slot(token);
+                        }
+                        frequencies.addDocument(slots, size);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(expected.size(), frequencies.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().intValue(), frequencies.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class CorpusCacheTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("corpus", "");
+        assertTrue(directory.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testCachedCorpusIsReused(){
+        List<String> documents = WordsTest.corpus(300, new Random(7));
+        WordsTest.CountingProcessor processor = new WordsTest.CountingProcessor(documents);
+        CorpusCache cache = new CorpusCache(directory);
+
+        Words words = new Words(8);
+        String fingerprint = CorpusCache.fingerprint("test", words);
+        int[][] expected = cache.processDocuments(processor, words, fingerprint);
+        assertEquals(1, processor.passes);
+        assertTrue(cache.getFile(fingerprint).exists());
+
+        Words restored = new Words(8);
+        int[][] tokensInDocs = cache.processDocuments(processor, restored, CorpusCache.fingerprint("test", restored));
+        assertEquals(1, processor.passes);
+        assertEquals(expected.length, tokensInDocs.length);
+        for (int d = 0; d < expected.length; ++d) {
+            assertTrue(Arrays.equals(expected[d], tokensInDocs[d]));
+        }
+        assertEquals(words.size(), restored.size());
+        for (int i = 0; i < words.size(); ++i) {
+            assertEquals(words.getToken(i), restored.getToken(i));
+        }
+        assertTrue(Arrays.equals(words.encode(documents.get(0)), restored.encode(documents.get(0))));
+    }
+
+    public void testHashedVocabularyIsNotCached(){
+        List<String> documents = WordsTest.corpus(100, new Random(9));
+        WordsTest.CountingProcessor processor = new WordsTest.CountingProcessor(documents);
+        CorpusCache cache = new CorpusCache(directory);
+
+        Words words = new Words(8).useHashedVocabulary(6, 2);
+        String fingerprint = CorpusCache.fingerprint("test", words);
+        int[][] expected = cache.processDocuments(processor, words, fingerprint);
+        assertFalse(cache.getFile(fingerprint).exists());
+
+        Words again = new Words(8).useHashedVocabulary(6, 2);
+        int[][] tokensInDocs = cache.processDocuments(processor, again, CorpusCache.fingerprint("test", again));
+        assertEquals(2, processor.passes);
+        assertEquals(expected.length, tokensInDocs.length);
+        for (int d = 0; d < expected.length; ++d) {
+            assertTrue(Arrays.equals(expected[d], tokensInDocs[d]));
+        }
+    }
+
+    public void testFingerprintDependsOnSettings(){
+        String fingerprint = CorpusCache.fingerprint("test", new Words(8));
+        assertEquals(fingerprint, CorpusCache.fingerprint("test", new Words(8)));
+        assertFalse(fingerprint.equals(CorpusCache.fingerprint("other", new Words(8))));
+        assertFalse(fingerprint.equals(CorpusCache.fingerprint("test", new Words(9))));
+        assertFalse(fingerprint.equals(CorpusCache.fingerprint("test", new Words(8).addTokens("river"))));
+    }
+}
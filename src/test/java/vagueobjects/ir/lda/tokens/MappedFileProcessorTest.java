@@ -0,0 +1,93 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MappedFileProcessorTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("corpus", ".txt");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRecords() throws IOException {
+        write("first line\r\n\nsecond caf\u00e9\nthird");
+        List<String> expected = Arrays.asList("first line", "second caf\u00e9", "third");
+        assertEquals(expected, read(new MappedFileProcessor(file)));
+        assertEquals(expected, read(new MappedFileProcessor(file, (byte) '\n', 16)));
+
+        try {
+            read(new MappedFileProcessor(file, (byte) '\n', 8));
+            fail();
+        } catch (IllegalStateException e) {
+            //expected: the second line is longer than a window
+        }
+    }
+
+    public void testSameEncodingAsStrings() throws IOException {
+        List<String> documents = WordsTest.corpus(300, new Random(8));
+        StringBuilder sb = new StringBuilder();
+        for (String document : documents) {
+            sb.append(document.replace('\n', ' ')).append('\n');
+        }
+        write(sb.toString());
+        List<String> lines = read(new MappedFileProcessor(file));
+
+        Words expected = new Words(8);
+        int[][] expectedDocs = expected.processDocuments(new WordsTest.CountingProcessor(lines));
+        Words words = new Words(8);
+        int[][] tokensInDocs = words.processDocuments(new MappedFileProcessor(file, (byte) '\n', 4096));
+        assertEquals(expected.size(), words.size());
+        assertEquals(expectedDocs.length, tokensInDocs.length);
+        for (int d = 0; d < expectedDocs.length; ++d) {
+            assertTrue(Arrays.equals(expectedDocs[d], tokensInDocs[d]));
+        }
+    }
+
+    private List<String> read(MappedFileProcessor processor) {
+        final List<String> result = new ArrayList<String>();
+        processor.process(new SourceHandler() {
+            @Override
+            public void handle(String text) {
+                result.add(text);
+            }
+        });
+        final List<String> decoded = new ArrayList<String>();
+        processor.process(new Utf8Handler() {
+            @Override
+            public void handle(ByteBuffer buffer, int offset, int length) {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; ++i) {
+                    bytes[i] = buffer.get(offset + i);
+                }
+                decoded.add(new String(bytes, Charset.forName("UTF-8")));
+            }
+        });
+        assertEquals(result, decoded);
+        return result;
+    }
+
+    private void write(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class SketchVocabularyTest extends TestCase {
+
+    public void testCountMinNeverUnderestimates(){
+        CountMinSketch sketch = new CountMinSketch(50, 4, 7L);
+        Random random = new Random(1);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 5000; ++i) {
+            String token = "t" + (int) Math.abs(random.nextGaussian() * 100);
+            Integer count = counts.get(token);
+            counts.put(token, count == null ? 1 : count + 1);
+            sketch.add(CountMinSketch.hash(token));
+        }
+        assertEquals(5000, sketch.getTotal());
+        int withinBound = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int estimate = sketch.estimate(CountMinSketch.hash(entry.getKey()));
+            assertTrue(estimate >= entry.getValue());
+            if (estimate - entry.getValue() <= sketch.getErrorBound()) {
+                withinBound++;
+            }
+        }
+        assertTrue(withinBound >= sketch.getConfidence() * counts.size());
+    }
+
+    public void testCountMinSeparatesEqualHashCodes(){
+        CountMinSketch sketch = new CountMinSketch(1000, 4, 7L);
+        for (int i = 0; i < 100; ++i) {
+            sketch.add(CountMinSketch.hash("AaAa"));
+        }
+        assertEquals(100, sketch.estimate(CountMinSketch.hash("AaAa")));
+        for (String token : new String[]{"BBBB", "AaBB", "BBAa"}) {
+            assertEquals("AaAa".hashCode(), token.hashCode());
+            assertEquals(0, sketch.estimate(CountMinSketch.hash(token)));
+        }
+    }
+
+    public void testSpaceSavingKeepsHeavyHitters(){
+        SpaceSaving summary = new SpaceSaving(10);
+        Random random = new Random(2);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 2000; ++i) {
+            String token = random.nextInt(4) == 0 ? "rare" + random.nextInt(1000) : "heavy" + random.nextInt(3);
+            Integer count = counts.get(token);
+            counts.put(token, count == null ? 1 : count + 1);
+            summary.add(token);
+        }
+        List<String> monitored = new ArrayList<String>();
+        for (SpaceSaving.Entry entry : summary.getEntries()) {
+            monitored.add(entry.token);
+            int count = counts.get(entry.token);
+            assertTrue(entry.count >= count);
+            assertTrue(entry.count - entry.error <= count);
+            assertTrue(entry.error <= summary.getErrorBound());
+        }
+        assertTrue(summary.getErrorBound() <= summary.getTotal() / 10);
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(monitored.contains("heavy" + i));
+        }
+    }
+
+    public void testSameVocabularyAsExact(){
+        Random random = new Random(3);
+        List<String> documents = new ArrayList<String>();
+        for (String text : WordsTest.corpus(400, random)) {
+            StringBuilder sb = new StringBuilder(text);
+            for (int i = 0; i < 5; ++i) {
+                sb.append(' ');
+                for (int j = 0; j < 8; ++j) {
+                    sb.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            documents.add(sb.toString());
+        }
+        Words exact = new Words(8);
+        exact.buildVocabulary(new WordsTest.CountingProcessor(documents));
+        WordsTest.CountingProcessor processor = new WordsTest.CountingProcessor(documents);
+        Words approximate = new Words(8).useApproximateVocabulary(1 << 12, 5, 200);
+        approximate.buildVocabulary(processor);
+        assertEquals(2, processor.passes);
+        assertEquals(0, exact.getDocFrequencyErrorBound());
+
+        assertEquals(exact.size(), approximate.size());
+        for (int i = 0; i < exact.size(); ++i) {
+            assertEquals(exact.getToken(i), approximate.getToken(i));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TokenizerTest extends TestCase {
+
+    public void testTokens(){
+        String text = "The Bank's rate, at 5.5%, is NOT what it was in 1987: Caf\u00e9-owners don't lend.";
+        List<String> expected = Arrays.asList("banks", "rate", "caf", "owners", "dont", "lend");
+        assertEquals(expected, TokenExtractor.extractTokens(text));
+        assertEquals(expected, tokenize(text.toCharArray()));
+    }
+
+    public void testUtf8(){
+        String text = "Na\u00efve caf\u00e9s \u2014 l'\u00e9t\u00e9 \u6771\u4eac rates\u2019 x\ud83d\ude00y ok";
+        byte[] bytes = text.getBytes(Charset.forName("UTF-8"));
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 4);
+        buffer.position(2);
+        buffer.put(bytes);
+        assertEquals(TokenExtractor.extractTokens(text), tokenize(buffer, 2, bytes.length));
+
+        //malformed and truncated sequences
+        byte[] malformed = {'a', 'b', (byte) 0xff, 'c', 'd', (byte) 0xe6, (byte) 0x9d};
+        assertEquals(Arrays.asList("ab", "cd"), tokenize(ByteBuffer.wrap(malformed), 0, malformed.length));
+    }
+
+    public void testLongToken(){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String token = sb.toString();
+        assertEquals(Arrays.asList(token, "end"), TokenExtractor.extractTokens(token.toUpperCase() + " end"));
+    }
+
+    public void testCharSliceMap(){
+        CharSliceMap map = new CharSliceMap();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i, map.add("token" + i));
+        }
+        assertEquals(1000, map.size());
+        char[] buffer = "token123 ".toCharArray();
+        assertEquals(123, map.get(buffer, 8));
+        assertEquals(-1, map.get(buffer, 9));
+        assertEquals(123, map.add(buffer, 8));
+        assertEquals("token999", map.getToken(999));
+        assertTrue(Tokenizer.STOP_WORDS.contains("the".toCharArray(), 3));
+    }
+
+    private List<String> tokenize(ByteBuffer text, int offset, int length) {
+        final List<String> result = new ArrayList<String>();
+        new Tokenizer().tokenize(text, offset, length, new Tokenizer.Handler() {
+            @Override
+            public void token(char[] buffer, int length) {
+                result.add(new String(buffer, 0, length));
+            }
+        });
+        return result;
+    }
+
+    private List<String> tokenize(char[] text) {
+        final List<String> result = new ArrayList<String>();
+        new Tokenizer().tokenize(text, 0, text.length, new Tokenizer.Handler() {
+            @Override
+            public void token(char[] buffer, int length) {
+                result.add(new String(buffer, 0, length));
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TopKTest extends TestCase {
+
+    public void testSameAsFullSort(){
+        Random random = new Random(1);
+        double[] scores = new double[1000];
+        for (int i = 0; i < scores.length; ++i) {
+            scores[i] = random.nextInt(200);
+        }
+        int[] ids = TopK.select(scores, 25);
+        assertEquals(25, ids.length);
+
+        Integer[] sorted = new Integer[scores.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = i;
+        }
+        final double[] s = scores;
+        Arrays.sort(sorted, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return s[a] != s[b] ? Double.compare(s[b], s[a]) : a.compareTo(b);
+            }
+        });
+        for (int i = 0; i < ids.length; ++i) {
+            assertEquals(sorted[i].intValue(), ids[i]);
+        }
+    }
+
+    public void testKeepsBestScorePerId(){
+        TopK topK = new TopK(3);
+        topK.offer(7, 1.0);
+        topK.offer(3, 2.0);
+        topK.offer(7, 5.0);
+        topK.offer(7, 0.5);
+        topK.offer(1, 3.0);
+        topK.offer(9, 0.1);
+        assertEquals(3, topK.size());
+        assertTrue(Arrays.equals(new int[]{7, 1, 3}, topK.getIds()));
+        assertTrue(Arrays.equals(new double[]{5.0, 3.0, 2.0}, topK.getScores()));
+        assertFalse(topK.accepts(1.0));
+
+        topK.clear();
+        assertEquals(0, topK.size());
+        topK.offer(9, 0.1);
+        assertTrue(Arrays.equals(new int[]{9}, topK.getIds()));
+    }
+
+    public void testParallelRows(){
+        Random random = new Random(2);
+        double[][] rows = new double[13][300];
+        for (double[] row : rows) {
+            for (int i = 0; i < row.length; ++i) {
+                row[i] = random.nextDouble();
+            }
+        }
+        int[][] parallel = TopK.select(rows, 10, 4);
+        for (int r = 0; r < rows.length; ++r) {
+            assertTrue(Arrays.equals(TopK.select(rows[r], 10), parallel[r]));
+        }
+    }
+}
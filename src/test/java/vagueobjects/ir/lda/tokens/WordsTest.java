@@ -0,0 +1,191 @@
+package vagueobjects.ir.lda.tokens;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class WordsTest extends TestCase {
+    static final String[] WORDS = {"river", "stream", "bank", "money", "loan", "water", "credit", "fish",
+            "rate", "boat", "interest", "shore", "deposit", "flow", "the", "of", "a", "x"};
+
+    public void testSinglePass(){
+        CountingProcessor processor = new CountingProcessor(corpus(200, new Random(1)));
+        Words words = new Words(8);
+        int[][] tokensInDocs = words.processDocuments(processor);
+        assertEquals(1, processor.passes);
+
+        List<int[]> expected = new ArrayList<int[]>();
+        for (String text : processor.documents) {
+            int[] ids = words.encode(text);
+            if (ids != null) {
+                expected.add(ids);
+            }
+        }
+        assertEquals(expected.size(), tokensInDocs.length);
+        for (int d = 0; d < tokensInDocs.length; ++d) {
+            assertTrue(Arrays.equals(expected.get(d), tokensInDocs[d]));
+        }
+    }
+
+    public void testSameVocabularyAsSeparatePasses(){
+        List<String> documents = corpus(300, new Random(2));
+        //document frequencies, then the best TF-IDF score of each token over all documents
+        final Map<String, Integer> docFrequencies = new HashMap<String, Integer>();
+        for (String text : documents) {
+            for (String token : new HashSet<String>(TokenExtractor.extractTokens(text))) {
+                Integer count = docFrequencies.get(token);
+                docFrequencies.put(token, count == null ? 1 : count + 1);
+            }
+        }
+        final Map<String, Float> scores = new HashMap<String, Float>();
+        for (String text : documents) {
+            Map<String, Integer> termFrequencies = new HashMap<String, Integer>();
+            for (String token : TokenExtractor.extractTokens(text)) {
+                Integer count = termFrequencies.get(token);
+                termFrequencies.put(token, count == null ? 1 : count + 1);
+            }
+            for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+                String token = entry.getKey();
+                int docFrequency = docFrequencies.get(token);
+                if (token.length() <= 1 || docFrequency < 3) {
+                    continue;
+                }
+                float f = (float) documents.size() / docFrequency;
+                float tfIdf = (float) ((float) entry.getValue() * Math.log(f));
+                if (!scores.containsKey(token) || scores.get(token) < tfIdf) {
+                    scores.put(token, tfIdf);
+                }
+            }
+        }
+        List<String> expected = new ArrayList<String>(scores.keySet());
+        Collections.sort(expected, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                int byScore = Float.compare(scores.get(o2), scores.get(o1));
+                return byScore != 0 ? byScore : o1.compareTo(o2);
+            }
+        });
+        expected = new ArrayList<String>(expected.subList(0, Math.min(8, expected.size())));
+        Collections.sort(expected);
+
+        for (Words words : new Words[]{new Words(8), new Words(8).useParallelTokenizing(3)}) {
+            words.buildVocabulary(new CountingProcessor(documents));
+            assertEquals(expected.size(), words.size());
+            for (int i = 0; i < expected.size(); ++i) {
+                assertEquals(expected.get(i), words.getToken(i));
+            }
+        }
+    }
+
+    public void testParallelTokenizing(){
+        List<String> documents = corpus(500, new Random(3));
+        Words sequential = new Words(8);
+        int[][] expected = sequential.processDocuments(new CountingProcessor(documents));
+        Words parallel = new Words(8).useParallelTokenizing(4);
+        int[][] tokensInDocs = parallel.processDocuments(new CountingProcessor(documents));
+
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); ++i) {
+            assertEquals(sequential.getToken(i), parallel.getToken(i));
+        }
+        assertEquals(expected.length, tokensInDocs.length);
+        for (int d = 0; d < expected.length; ++d) {
+            assertTrue(Arrays.equals(expected[d], tokensInDocs[d]));
+        }
+    }
+
+    public void testPipelineKeepsOrder(){
+        List<String> documents = corpus(300, new Random(4));
+        TokenDictionary dictionary = new TokenDictionary();
+        List<int[]> corpus = new TokenizingPipeline(3, 2).read(new CountingProcessor(documents), dictionary);
+        assertEquals(documents.size(), corpus.size());
+        assertEquals(documents.size(), dictionary.getDocCount());
+        for (int d = 0; d < documents.size(); ++d) {
+            List<String> tokens = new ArrayList<String>();
+            for (int id : corpus.get(d)) {
+                tokens.add(dictionary.getToken(id));
+            }
+            assertEquals(TokenExtractor.extractTokens(documents.get(d)), tokens);
+        }
+
+        TokenDictionary sequential = new TokenDictionary();
+        for (String text : documents) {
+            sequential.add(text);
+        }
+        assertEquals(sequential.size(), dictionary.size());
+        for (int id = 0; id < dictionary.size(); ++id) {
+            int sequentialId = sequential.idOf(dictionary.getToken(id));
+            assertEquals(sequential.getDocFrequency(sequentialId), dictionary.getDocFrequency(id));
+        }
+    }
+
+    public void testPipelineFailsInsteadOfHanging(){
+        List<String> documents = corpus(300, new Random(5));
+        documents.set(5, null);
+        try {
+            new TokenizingPipeline(3, 2).read(new CountingProcessor(documents), new TokenDictionary());
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+    }
+
+    public void testHashedVocabulary(){
+        CountingProcessor processor = new CountingProcessor(corpus(100, new Random(6)));
+        Words words = new Words(8).useHashedVocabulary(6, 3);
+        int[][] tokensInDocs = words.processDocuments(processor);
+        assertEquals(1, processor.passes);
+        assertEquals(64, words.size());
+
+        for (int d = 0; d < tokensInDocs.length; ++d) {
+            for (int id : tokensInDocs[d]) {
+                assertTrue(id >= 0 && id < 64);
+            }
+        }
+        int[] ids = words.encode("river bank river");
+        assertEquals(3, ids.length);
+        assertEquals(ids[0], ids[2]);
+        assertTrue(Arrays.asList(words.getToken(ids[0]).split("/")).contains("river"));
+        assertNull(words.encode("the river"));
+    }
+
+    static List<String> corpus(int numDocs, Random random) {
+        List<String> documents = new ArrayList<String>();
+        for (int d = 0; d < numDocs; ++d) {
+            StringBuilder sb = new StringBuilder();
+            int length = 2 + random.nextInt(30);
+            for (int i = 0; i < length; ++i) {
+                //skewed towards the first words
+                int w = (int) (WORDS.length * Math.pow(random.nextDouble(), 2));
+                sb.append(i % 7 == 0 ? WORDS[w].toUpperCase() : WORDS[w]).append(i % 5 == 0 ? ", " : " ");
+            }
+            documents.add(sb.toString());
+        }
+        return documents;
+    }
+
+    static class CountingProcessor implements Processor {
+        final List<String> documents;
+        int passes;
+
+        CountingProcessor(List<String> documents) {
+            this.documents = documents;
+        }
+
+        @Override
+        public void process(SourceHandler handler) {
+            passes++;
+            for (String text : documents) {
+                handler.handle(text);
+            }
+        }
+    }
+}